@@ -0,0 +1,49 @@
+package bench;
+
+import java.io.IOException;
+
+import ds.SparseCorpus;
+import util.CorpusCache;
+import util.SyntheticCorpus;
+import util.VocabularyFilter;
+
+/**
+ * The corpora the benchmarks run on, named by their corpus
+ * parameter: "synthetic" for a SyntheticCorpus of the given
+ * size and sparsity, anything else for the path of a docword
+ * file, e.g. datasets/docword.kos.txt.
+ *
+ */
+class Corpora {
+
+	static final String SYNTHETIC = "synthetic";
+	static final String NO_FILTER = "none";
+	static final long SEED = 42;
+
+	/************************* *************************/
+
+	/**
+	 * @description Load or generate a corpus. The size and
+	 * mean document length only apply to synthetic corpora.
+	 */
+	static SparseCorpus load(String corpus, int documents, int words, int length) throws IOException {
+		if (corpus.equals(SYNTHETIC)) {
+			return SyntheticCorpus.generate(documents, words, length, SEED);
+		}
+		return CorpusCache.load(corpus, null);
+	}
+
+	/**
+	 * @description Apply a VocabularyFilter given as "min df,
+	 * max df fraction[,max words[,tfidf]]", or "none".
+	 */
+	static SparseCorpus filter(SparseCorpus data, String vocabulary) {
+		if (vocabulary.equals(NO_FILTER)) {
+			return data;
+		}
+		String[] parts = vocabulary.split(",");
+		VocabularyFilter filter = new VocabularyFilter(Integer.parseInt(parts[0].trim()), Double.parseDouble(parts[1].trim()),
+				parts.length > 2 ? Integer.parseInt(parts[2].trim()) : 0, parts.length > 3 && parts[3].trim().equals("tfidf"));
+		return filter.apply(data);
+	}
+}
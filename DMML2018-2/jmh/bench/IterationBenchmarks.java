@@ -0,0 +1,95 @@
+package bench;
+
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import clust.KMeansClustering;
+import ds.SparseCorpus;
+
+/**
+ * Benchmarks of whole iterations, an assignment step and a
+ * centroid update, with either metric and with pruning on and
+ * off, on a synthetic corpus and on KOS. The clustering keeps
+ * iterating past convergence, so after warm-up every
+ * operation costs about the same. Setting vocabulary to
+ * "min df,max df fraction[,max words[,tfidf]]" runs them on the
+ * corpus after a VocabularyFilter.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IterationBenchmarks {
+
+	@Param({ Corpora.SYNTHETIC, "datasets/docword.kos.txt" })
+	public String corpus;
+
+	@Param({ "2000" })
+	public int documents;
+
+	@Param({ "10000" })
+	public int words;
+
+	@Param({ "20" })
+	public int length;
+
+	@Param({ "5", "50" })
+	public int k;
+
+	@Param({ "angle", "angle-pruned", "jaccard" })
+	public String metric;
+
+	@Param({ Corpora.NO_FILTER })
+	public String vocabulary;
+
+	@Param({ "1" })
+	public int threads;
+
+	private ForkJoinPool pool;
+	private KMeansClustering km;
+
+	/************************* *************************/
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		SparseCorpus data = Corpora.filter(Corpora.load(corpus, documents, words, length), vocabulary);
+		this.pool = threads > 1 ? new ForkJoinPool(threads) : null;
+		this.km = new KMeansClustering(data, k, metric.startsWith("angle"), pool);
+		km.setVerbose(false);
+		km.setPruning(metric.endsWith("pruned"));
+		km.initialise();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		if (pool != null) {
+			pool.shutdown();
+		}
+	}
+
+	/************************* *************************/
+
+	@Benchmark
+	public int iteration() {
+		km.iterate();
+		return km.getIterations();
+	}
+}
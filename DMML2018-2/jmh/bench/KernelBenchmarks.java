@@ -0,0 +1,276 @@
+package bench;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import clust.CentroidUpdater;
+import clust.CompactCentroids;
+import clust.DenseCentroids;
+import clust.Distances;
+import clust.InvertedCentroids;
+import clust.Precision;
+import ds.Centroid;
+import ds.SparseCorpus;
+
+/**
+ * Benchmarks of the distance kernels and the centroid update.
+ * Every distance operation is one pass of all documents
+ * against one centroid, except for the dense matrix, inverted
+ * index and reduced precision kernels, which score all k at
+ * once. The spherical kernel scores all k by dot products of
+ * unit vectors, as in SphericalKMeans. The centroids are those
+ * of random clusters, as a clustering would have after its
+ * first iteration.
+ *
+ * The parameters cover the vocabulary size, the sparsity (the
+ * mean number of distinct words per document) and k, on
+ * synthetic corpora by default; -p corpus=datasets/docword.kos.txt
+ * runs them on a docword file instead, which fixes the first
+ * two.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KernelBenchmarks {
+
+	@Param({ Corpora.SYNTHETIC })
+	public String corpus;
+
+	@Param({ "2000" })
+	public int documents;
+
+	@Param({ "10000", "100000" })
+	public int words;
+
+	@Param({ "20", "200" })
+	public int length;
+
+	@Param({ "5", "50" })
+	public int k;
+
+	private int numberOfDocuments;
+	private int[] wordIds;
+	private double[] counts;
+	private int[] rowPtr;
+	private double[] idf;
+	private double[] documentNorms;
+
+	private List<Centroid> kMeans;
+	private int[] membership;
+	private Centroid centroid;
+	private double centroidNorm;
+	private double[] dense;
+	private double[] distances;
+	private DenseCentroids denseAngles;
+	private DenseCentroids denseSets;
+	private InvertedCentroids invertedAngles;
+	private InvertedCentroids invertedSets;
+	private CompactCentroids floatAngles;
+	private CompactCentroids quantisedAngles;
+	private double[] unitWeights;
+	private double[] directions;
+	private CentroidUpdater updater;
+
+	/************************* *************************/
+
+	@Setup
+	public void setUp() throws IOException {
+		SparseCorpus data = Corpora.load(corpus, documents, words, length);
+		this.numberOfDocuments = data.getNumberOfDocuments();
+		this.wordIds = data.getWordIds();
+		this.counts = data.getCounts();
+		this.rowPtr = data.getRowPtr();
+		this.idf = data.getIdf();
+		this.documentNorms = data.getDocumentNorms();
+
+		this.membership = new int[numberOfDocuments];
+		Random random = new Random(Corpora.SEED);
+		this.kMeans = new ArrayList<Centroid>();
+		for (int i = 1; i <= k; ++i) {
+			kMeans.add(new Centroid(i, new int[0], new double[0]));
+		}
+		for (int d = 0; d < numberOfDocuments; ++d) {
+			membership[d] = 1 + random.nextInt(k);
+		}
+		this.updater = new CentroidUpdater(data, null);
+		updater.recompute(kMeans, membership);
+		this.centroid = kMeans.get(0);
+		this.centroidNorm = Distances.squaredNorm(centroid.getWordIds(), centroid.getWeights(), 0, centroid.getCoordinatesSize(), idf);
+		this.dense = new double[data.getNumberOfWords()];
+		for (int i = 0; i < centroid.getCoordinatesSize(); ++i) {
+			dense[centroid.getWordIds()[i] - 1] = centroid.getWeights()[i];
+		}
+		double[] centroidNorms = new double[k];
+		for (int i = 0; i < k; ++i) {
+			centroidNorms[i] = Distances.squaredNorm(kMeans.get(i).getWordIds(), kMeans.get(i).getWeights(), 0, kMeans.get(i).getCoordinatesSize(), idf);
+		}
+		this.distances = new double[k];
+		this.denseAngles = new DenseCentroids(data, k, true);
+		this.denseSets = new DenseCentroids(data, k, false);
+		denseAngles.setCentroids(kMeans, centroidNorms);
+		denseSets.setCentroids(kMeans, centroidNorms);
+		this.invertedAngles = new InvertedCentroids(data, k, true);
+		this.invertedSets = new InvertedCentroids(data, k, false);
+		invertedAngles.setCentroids(kMeans, centroidNorms);
+		invertedSets.setCentroids(kMeans, centroidNorms);
+		this.floatAngles = new CompactCentroids(data, k, Precision.FLOAT);
+		this.quantisedAngles = new CompactCentroids(data, k, Precision.QUANTISED);
+		floatAngles.setCentroids(kMeans, centroidNorms);
+		quantisedAngles.setCentroids(kMeans, centroidNorms);
+		this.unitWeights = new double[counts.length];
+		for (int d = 0; d < numberOfDocuments; ++d) {
+			for (int i = rowPtr[d]; i < rowPtr[d + 1] && documentNorms[d] > 0; ++i) {
+				unitWeights[i] = counts[i] * idf[wordIds[i] - 1] / Math.sqrt(documentNorms[d]);
+			}
+		}
+		this.directions = new double[data.getNumberOfWords() * k];
+		for (int c = 0; c < k; ++c) {
+			int[] centroidWords = kMeans.get(c).getWordIds();
+			double[] centroidWeights = kMeans.get(c).getWeights();
+			for (int i = 0; i < centroidWords.length; ++i) {
+				directions[(centroidWords[i] - 1) * k + c] = centroidWeights[i] * idf[centroidWords[i] - 1] / Math.sqrt(centroidNorms[c]);
+			}
+		}
+	}
+
+	/************************* *************************/
+
+	@Benchmark
+	public double angleSparse() {
+		double ans = 0;
+		for (int d = 0; d < numberOfDocuments; ++d) {
+			ans += Distances.angle(wordIds, counts, rowPtr[d], rowPtr[d + 1], documentNorms[d], centroid.getWordIds(), centroid.getWeights(),
+					centroidNorm, idf);
+		}
+		return ans;
+	}
+
+	@Benchmark
+	public double angleDense() {
+		double ans = 0;
+		for (int d = 0; d < numberOfDocuments; ++d) {
+			ans += Distances.angleToDense(wordIds, counts, rowPtr[d], rowPtr[d + 1], documentNorms[d], dense, centroidNorm, idf);
+		}
+		return ans;
+	}
+
+	@Benchmark
+	public double jaccardSparse() {
+		double ans = 0;
+		for (int d = 0; d < numberOfDocuments; ++d) {
+			ans += Distances.jaccard(wordIds, rowPtr[d], rowPtr[d + 1], centroid.getWordIds());
+		}
+		return ans;
+	}
+
+	@Benchmark
+	public double jaccardDense() {
+		double ans = 0;
+		for (int d = 0; d < numberOfDocuments; ++d) {
+			ans += Distances.jaccardToDense(wordIds, rowPtr[d], rowPtr[d + 1], dense, centroid.getCoordinatesSize());
+		}
+		return ans;
+	}
+
+	/************************* *************************/
+
+	@Benchmark
+	public double angleAll() {
+		double ans = 0;
+		for (int d = 1; d <= numberOfDocuments; ++d) {
+			denseAngles.distances(d, distances);
+			ans += distances[0];
+		}
+		return ans;
+	}
+
+	@Benchmark
+	public double jaccardAll() {
+		double ans = 0;
+		for (int d = 1; d <= numberOfDocuments; ++d) {
+			denseSets.distances(d, distances);
+			ans += distances[0];
+		}
+		return ans;
+	}
+
+	@Benchmark
+	public double angleInverted() {
+		double ans = 0;
+		for (int d = 1; d <= numberOfDocuments; ++d) {
+			invertedAngles.distances(d, distances);
+			ans += distances[0];
+		}
+		return ans;
+	}
+
+	@Benchmark
+	public double jaccardInverted() {
+		double ans = 0;
+		for (int d = 1; d <= numberOfDocuments; ++d) {
+			invertedSets.distances(d, distances);
+			ans += distances[0];
+		}
+		return ans;
+	}
+
+	@Benchmark
+	public double angleFloat() {
+		double ans = 0;
+		for (int d = 1; d <= numberOfDocuments; ++d) {
+			floatAngles.distances(d, distances);
+			ans += distances[0];
+		}
+		return ans;
+	}
+
+	@Benchmark
+	public double angleQuantised() {
+		double ans = 0;
+		for (int d = 1; d <= numberOfDocuments; ++d) {
+			quantisedAngles.distances(d, distances);
+			ans += distances[0];
+		}
+		return ans;
+	}
+
+	@Benchmark
+	public double sphericalAll() {
+		double ans = 0;
+		for (int d = 0; d < numberOfDocuments; ++d) {
+			Distances.dotsToAll(wordIds, unitWeights, rowPtr[d], rowPtr[d + 1], directions, k, distances);
+			ans += distances[0];
+		}
+		return ans;
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description A full recompute of the centroids from the
+	 * random membership.
+	 */
+	@Benchmark
+	public int[] update() {
+		return updater.recompute(kMeans, membership);
+	}
+}
@@ -0,0 +1,117 @@
+package clust;
+
+import java.util.Arrays;
+import java.util.List;
+
+import ds.Centroid;
+
+/**
+ * A policy that keeps centroids sparse. After every update,
+ * a centroid keeps at most a fixed number of terms, and only
+ * its heaviest terms that together hold a given fraction of
+ * its squared tf-idf norm. Terms are ranked by their tf-idf
+ * weight. Since the cost of a sparse distance grows with the
+ * centroid support, this bounds the cost of an iteration on
+ * large vocabularies, at the price of approximate centroids.
+ *
+ */
+public class CentroidTruncation {
+
+	private int maxTerms;
+	private double massFraction;
+
+	/************************* *************************/
+
+	/**
+	 * Constructor. A maximum of 0 terms or a mass fraction of 1
+	 * disables that limit.
+	 */
+	public CentroidTruncation(int maxTerms, double massFraction) {
+		if (maxTerms < 0 || !(massFraction > 0 && massFraction <= 1)) {
+			throw(new RuntimeException("Invalid centroid truncation parameters!"));
+		}
+		this.maxTerms = maxTerms;
+		this.massFraction = massFraction;
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Getter functions.
+	 */
+	public int getMaxTerms() { return this.maxTerms; }
+	public double getMassFraction() { return this.massFraction; }
+
+	/************************* *************************/
+
+	/**
+	 * @description Truncate every centroid, given the idf of
+	 * every word. Returns the number of terms dropped.
+	 */
+	public long truncate(List<Centroid> kMeans, double[] idf) {
+		long ans = 0;
+		for (int c = 0; c < kMeans.size(); ++c) {
+			ans += truncate(kMeans.get(c), idf);
+		}
+		return ans;
+	}
+
+	/**
+	 * @description Truncate a single centroid, keeping its terms
+	 * in word ID order. Terms tied with the last one kept are
+	 * kept as well. Returns the number of terms dropped.
+	 */
+	public int truncate(Centroid centroid, double[] idf) {
+		int[] wordIds = centroid.getWordIds();
+		double[] weights = centroid.getWeights();
+		int size = wordIds.length;
+		int limit = maxTerms > 0 ? Math.min(maxTerms, size) : size;
+		if (size == 0 || (limit == size && massFraction == 1)) {
+			return 0;
+		}
+
+		// Squared tf-idf weight of every term, heaviest first.
+		double[] scores = new double[size];
+		double total = 0;
+		for (int i = 0; i < size; ++i) {
+			double weight = weights[i] * idf[wordIds[i] - 1];
+			scores[i] = weight * weight;
+			total += scores[i];
+		}
+		double[] sorted = scores.clone();
+		Arrays.sort(sorted);
+		int kept = 0;
+		double mass = 0;
+		double threshold = sorted[size - 1];
+		while (kept < limit && mass < massFraction * total) {
+			threshold = sorted[size - 1 - kept];
+			mass += threshold;
+			kept++;
+		}
+
+		int numberKept = 0;
+		for (int i = 0; i < size; ++i) {
+			if (scores[i] >= threshold) {
+				numberKept++;
+			}
+		}
+		if (numberKept == size) {
+			return 0;
+		}
+		int[] keptWords = new int[numberKept];
+		double[] keptWeights = new double[numberKept];
+		int j = 0;
+		for (int i = 0; i < size; ++i) {
+			if (scores[i] >= threshold) {
+				keptWords[j] = wordIds[i];
+				keptWeights[j++] = weights[i];
+			}
+		}
+		centroid.setCoordinates(keptWords, keptWeights);
+		return size - numberKept;
+	}
+
+	public String toString() {
+		return "top " + (maxTerms > 0 ? String.valueOf(maxTerms) : "all") + " terms, " + massFraction + " of the mass";
+	}
+}
@@ -0,0 +1,420 @@
+package clust;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+import ds.Centroid;
+import ds.SparseCorpus;
+
+/**
+ * This class recomputes centroids as the mean of their
+ * member documents. Documents are summed into dense
+ * per-cluster accumulators, one set per worker, which are
+ * added together at the end and converted back into sorted
+ * sparse coordinates. When k dense rows per worker would be
+ * too large, documents are grouped by cluster instead and
+ * each cluster is summed through a single sparse accumulator.
+ *
+ * Between iterations, update keeps the dense per-cluster sums
+ * and the membership they were taken over, and only moves the
+ * documents whose cluster changed from one sum to the other.
+ * Word counts are whole numbers, so the sums stay exact and the
+ * centroids are the same as those of a full recompute. Counts
+ * are read through SparseCorpus.getCount, so compact corpora
+ * work too.
+ *
+ */
+public class CentroidUpdater {
+
+	private static final long DENSE_ACCUMULATOR_LIMIT = 1L << 24;
+
+	private SparseCorpus data;
+	private ForkJoinPool pool;
+	private int parallelism;
+	private boolean wholeCounts;
+
+	// State of the incremental updates: the sums and sizes per
+	// cluster, and the membership they reflect.
+	private double[][] sums;
+	private int[] sizes;
+	private int[] summedMembership;
+
+	/************************* *************************/
+
+	/**
+	 * Constructor. The pool may be null, in which case all
+	 * work runs on the calling thread.
+	 */
+	public CentroidUpdater(SparseCorpus data, ForkJoinPool pool) {
+		this.data = data;
+		this.pool = pool;
+		this.parallelism = pool == null ? 1 : pool.getParallelism();
+		this.wholeCounts = true;
+		for (int i = 0; i < data.getNumberOfNonzeros() && wholeCounts; ++i) {
+			wholeCounts = data.getCount(i) == Math.rint(data.getCount(i));
+		}
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Replace the coordinates of every centroid by
+	 * the average of the documents assigned to it. Membership is
+	 * indexed by document ID - 1 and holds centroid IDs starting
+	 * at 1. Returns the cluster sizes.
+	 */
+	public int[] recompute(List<Centroid> kMeans, int[] membership) {
+		int k = kMeans.size();
+		if ((long) k * data.getNumberOfWords() * parallelism <= DENSE_ACCUMULATOR_LIMIT) {
+			return recomputeDense(kMeans, membership);
+		} else {
+			return recomputeByCluster(kMeans, membership);
+		}
+	}
+
+	/**
+	 * @description Bring the centroids up to date with a new
+	 * membership, reusing the sums of the previous call: only the
+	 * documents that changed cluster are subtracted from their
+	 * old sum and added to the new one, and only the centroids of
+	 * the clusters they left or joined are rebuilt and flagged in
+	 * updated. Falls back to a full recompute, flagging every
+	 * centroid, on the first call, when most documents moved, or
+	 * when the sums would not fit or not be exact. Returns the
+	 * cluster sizes.
+	 */
+	public int[] update(List<Centroid> kMeans, int[] membership, boolean[] updated) {
+		int k = kMeans.size();
+		if (!wholeCounts || (long) k * data.getNumberOfWords() > DENSE_ACCUMULATOR_LIMIT) {
+			Arrays.fill(updated, 0, k, true);
+			return recompute(kMeans, membership);
+		}
+		int numberOfDocuments = data.getNumberOfDocuments();
+		int moved = numberOfDocuments;
+		if (summedMembership != null && sums.length == k) {
+			moved = 0;
+			for (int i = 0; i < numberOfDocuments; ++i) {
+				if (summedMembership[i] != membership[i]) {
+					moved++;
+				}
+			}
+		}
+
+		// Moving a document costs twice as much as summing it.
+		if (2 * moved > numberOfDocuments) {
+			Accumulator sum = accumulate(k, membership);
+			for (int i = 0; i < k; ++i) {
+				if (sum.sums[i] == null) {
+					sum.sums[i] = new double[data.getNumberOfWords()];
+				}
+				setFromDense(kMeans.get(i), sum.sums[i], sum.sizes[i]);
+			}
+			this.sums = sum.sums;
+			this.sizes = sum.sizes;
+			this.summedMembership = membership.clone();
+			Arrays.fill(updated, 0, k, true);
+			return sizes.clone();
+		}
+
+		int[] rowPtr = data.getRowPtr();
+		int[] wordIds = data.getWordIds();
+		Arrays.fill(updated, 0, k, false);
+		for (int d = 0; d < numberOfDocuments && moved > 0; ++d) {
+			int from = summedMembership[d] - 1;
+			int to = membership[d] - 1;
+			if (from == to) {
+				continue;
+			}
+			double[] fromRow = sums[from];
+			double[] toRow = sums[to];
+			for (int i = rowPtr[d]; i < rowPtr[d + 1]; ++i) {
+				double count = data.getCount(i);
+				fromRow[wordIds[i] - 1] -= count;
+				toRow[wordIds[i] - 1] += count;
+			}
+			sizes[from]--;
+			sizes[to]++;
+			updated[from] = true;
+			updated[to] = true;
+			summedMembership[d] = membership[d];
+			moved--;
+		}
+		for (int i = 0; i < k; ++i) {
+			if (updated[i]) {
+				setFromDense(kMeans.get(i), sums[i], sizes[i]);
+			}
+		}
+		return sizes.clone();
+	}
+
+	/**
+	 * @description Forget the sums kept by update, e.g. when the
+	 * centroids were set by other means.
+	 */
+	public void reset() {
+		this.sums = null;
+		this.sizes = null;
+		this.summedMembership = null;
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Sum every document range into its own dense
+	 * accumulator and reduce them. The ranges are fixed by the
+	 * parallelism, so the order of additions is too.
+	 */
+	private int[] recomputeDense(List<Centroid> kMeans, int[] membership) {
+		int k = kMeans.size();
+		Accumulator sum = accumulate(k, membership);
+		for (int i = 0; i < k; ++i) {
+			setFromDense(kMeans.get(i), sum.sums[i], sum.sizes[i]);
+		}
+		return sum.sizes;
+	}
+
+	private Accumulator accumulate(int k, int[] membership) {
+		int numberOfDocuments = data.getNumberOfDocuments();
+		if (pool != null && (long) k * data.getNumberOfWords() * parallelism <= DENSE_ACCUMULATOR_LIMIT) {
+			return pool.invoke(new AccumulateTask(1, numberOfDocuments + 1, parallelism, k, membership));
+		}
+		Accumulator ans = new Accumulator(k, data.getNumberOfWords());
+		ans.addDocuments(data, membership, 1, numberOfDocuments + 1);
+		return ans;
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Group documents by cluster with a counting
+	 * sort and sum each cluster separately. Each worker needs a
+	 * single dense row instead of k of them.
+	 */
+	private int[] recomputeByCluster(List<Centroid> kMeans, int[] membership) {
+		int k = kMeans.size();
+		int numberOfDocuments = data.getNumberOfDocuments();
+		int[] sizes = new int[k];
+		int[] clusterStart = new int[k + 1];
+		int[] orderedDocuments = new int[numberOfDocuments];
+		for (int i = 0; i < numberOfDocuments; ++i) {
+			sizes[membership[i] - 1]++;
+		}
+		for (int i = 0; i < k; ++i) {
+			clusterStart[i + 1] = clusterStart[i] + sizes[i];
+		}
+		int[] next = Arrays.copyOf(clusterStart, k);
+		for (int i = 0; i < numberOfDocuments; ++i) {
+			orderedDocuments[next[membership[i] - 1]++] = i + 1;
+		}
+		if (pool != null) {
+			pool.invoke(new ClusterTask(kMeans, 0, k, parallelism, clusterStart, orderedDocuments));
+		} else {
+			new ClusterTask(kMeans, 0, k, 1, clusterStart, orderedDocuments).compute();
+		}
+		return sizes;
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Set the centroid to the given dense sum
+	 * divided by the cluster size, keeping only the nonzero
+	 * words. A null row or a size of 0 means the cluster is
+	 * empty.
+	 */
+	private void setFromDense(Centroid centroid, double[] sum, int size) {
+		if (sum == null || size == 0) {
+			centroid.setCoordinates(new int[0], new double[0]);
+			return;
+		}
+		int nonzeros = 0;
+		for (int w = 0; w < sum.length; ++w) {
+			if (sum[w] != 0) {
+				nonzeros++;
+			}
+		}
+		int[] wordIds = new int[nonzeros];
+		double[] weights = new double[nonzeros];
+		int j = 0;
+		for (int w = 0; w < sum.length; ++w) {
+			if (sum[w] != 0) {
+				wordIds[j] = w + 1;
+				weights[j++] = sum[w] / size;
+			}
+		}
+		centroid.setCoordinates(wordIds, weights);
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Per-worker partial sums: one dense row per
+	 * cluster, allocated when the first document arrives.
+	 */
+	private static class Accumulator {
+
+		private double[][] sums;
+		private int[] sizes;
+		private int numberOfWords;
+
+		public Accumulator(int k, int numberOfWords) {
+			this.sums = new double[k][];
+			this.sizes = new int[k];
+			this.numberOfWords = numberOfWords;
+		}
+
+		public void addDocuments(SparseCorpus data, int[] membership, int from, int to) {
+			int[] rowPtr = data.getRowPtr();
+			int[] wordIds = data.getWordIds();
+			for (int documentId = from; documentId < to; ++documentId) {
+				int cluster = membership[documentId - 1] - 1;
+				if (sums[cluster] == null) {
+					sums[cluster] = new double[numberOfWords];
+				}
+				double[] row = sums[cluster];
+				for (int i = rowPtr[documentId - 1]; i < rowPtr[documentId]; ++i) {
+					row[wordIds[i] - 1] += data.getCount(i);
+				}
+				sizes[cluster]++;
+			}
+		}
+
+		public Accumulator merge(Accumulator other) {
+			for (int c = 0; c < sums.length; ++c) {
+				sizes[c] += other.sizes[c];
+				if (other.sums[c] == null) {
+					continue;
+				}
+				if (sums[c] == null) {
+					sums[c] = other.sums[c];
+				} else {
+					double[] row = sums[c];
+					double[] otherRow = other.sums[c];
+					for (int w = 0; w < numberOfWords; ++w) {
+						row[w] += otherRow[w];
+					}
+				}
+			}
+			return this;
+		}
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Splits the documents [from, to) into the
+	 * given number of contiguous parts, sums each part into its
+	 * own accumulator and merges the results left to right.
+	 */
+	@SuppressWarnings("serial")
+	private class AccumulateTask extends RecursiveTask<Accumulator> {
+
+		private int from;
+		private int to;
+		private int parts;
+		private int k;
+		private int[] membership;
+
+		public AccumulateTask(int from, int to, int parts, int k, int[] membership) {
+			this.from = from;
+			this.to = to;
+			this.parts = parts;
+			this.k = k;
+			this.membership = membership;
+		}
+
+		protected Accumulator compute() {
+			if (parts <= 1 || to - from <= 1) {
+				Accumulator ans = new Accumulator(k, data.getNumberOfWords());
+				ans.addDocuments(data, membership, from, to);
+				return ans;
+			}
+			int leftParts = parts / 2;
+			int mid = from + (int) ((long) (to - from) * leftParts / parts);
+			AccumulateTask left = new AccumulateTask(from, mid, leftParts, k, membership);
+			AccumulateTask right = new AccumulateTask(mid, to, parts - leftParts, k, membership);
+			right.fork();
+			Accumulator ans = left.compute();
+			return ans.merge(right.join());
+		}
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Splits the clusters [from, to) into the given
+	 * number of contiguous parts with about as many documents
+	 * each, and sums the clusters of a part one at a time
+	 * through a sparse accumulator: a dense scratch row plus the
+	 * list of words it touched, which is sorted at the end. Only
+	 * the touched words are cleared between clusters, so a part
+	 * allocates its scratch arrays once.
+	 */
+	@SuppressWarnings("serial")
+	private class ClusterTask extends RecursiveAction {
+
+		private List<Centroid> kMeans;
+		private int from;
+		private int to;
+		private int parts;
+		private int[] clusterStart;
+		private int[] orderedDocuments;
+
+		public ClusterTask(List<Centroid> kMeans, int from, int to, int parts, int[] clusterStart, int[] orderedDocuments) {
+			this.kMeans = kMeans;
+			this.from = from;
+			this.to = to;
+			this.parts = parts;
+			this.clusterStart = clusterStart;
+			this.orderedDocuments = orderedDocuments;
+		}
+
+		protected void compute() {
+			if (parts > 1 && to - from > 1) {
+				int leftParts = parts / 2;
+				long target = clusterStart[from] + (long) (clusterStart[to] - clusterStart[from]) * leftParts / parts;
+				int mid = from + 1;
+				while (mid < to - 1 && clusterStart[mid] < target) {
+					mid++;
+				}
+				invokeAll(new ClusterTask(kMeans, from, mid, leftParts, clusterStart, orderedDocuments),
+						new ClusterTask(kMeans, mid, to, parts - leftParts, clusterStart, orderedDocuments));
+				return;
+			}
+			int[] rowPtr = data.getRowPtr();
+			int[] wordIds = data.getWordIds();
+			double[] scratch = new double[data.getNumberOfWords()];
+			boolean[] seen = new boolean[data.getNumberOfWords()];
+			int[] touched = new int[data.getNumberOfWords()];
+			for (int c = from; c < to; ++c) {
+				int numberTouched = 0;
+				for (int j = clusterStart[c]; j < clusterStart[c + 1]; ++j) {
+					int documentId = orderedDocuments[j];
+					for (int i = rowPtr[documentId - 1]; i < rowPtr[documentId]; ++i) {
+						int w = wordIds[i] - 1;
+						if (!seen[w]) {
+							seen[w] = true;
+							touched[numberTouched++] = w;
+						}
+						scratch[w] += data.getCount(i);
+					}
+				}
+				Arrays.sort(touched, 0, numberTouched);
+				int size = clusterStart[c + 1] - clusterStart[c];
+				int[] centroidWords = new int[numberTouched];
+				double[] centroidWeights = new double[numberTouched];
+				for (int j = 0; j < numberTouched; ++j) {
+					int w = touched[j];
+					centroidWords[j] = w + 1;
+					centroidWeights[j] = scratch[w] / size;
+					scratch[w] = 0;
+					seen[w] = false;
+				}
+				kMeans.get(c).setCoordinates(centroidWords, centroidWeights);
+			}
+		}
+	}
+}
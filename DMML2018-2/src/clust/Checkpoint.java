@@ -0,0 +1,206 @@
+package clust;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import ds.Centroid;
+
+/**
+ * The state of a k-means run after a number of iterations:
+ * the centroids, the membership arrays and the convergence
+ * statistics, which is all the next iteration depends on. The
+ * only randomness of a run is its seed, which fixes the
+ * seeding and the MinHash functions, so the seed stands in for
+ * the random number generator state. The binary layout is:
+ * * int magic, int version
+ * * int D, int W, int k, boolean angle, long seed
+ * * int iterations, int same documents, double objective,
+ *   double previous objective, double largest shift
+ * * int[D] each of current, previous, current average and
+ *   previous average membership
+ * * per centroid: int size, int[size] word IDs,
+ *   double[size] weights
+ *
+ */
+public class Checkpoint {
+
+	private static final int MAGIC = 0x444d434b; // "DMCK"
+	private static final int VERSION = 1;
+
+	private int numberOfDocuments;
+	private int numberOfWords;
+	private int k;
+	private boolean useAngleDistance;
+	private long seed;
+	private int iterations;
+	private int sameDocuments;
+	private double objective;
+	private double previousObjective;
+	private double largestShift;
+	private int[] currentMembership;
+	private int[] previousMembership;
+	private int[] currentAverageMembership;
+	private int[] previousAverageMembership;
+	private List<Centroid> kMeans;
+
+	/************************* *************************/
+
+	/**
+	 * Constructor. Keeps references to the arrays and centroids
+	 * given, so it must be written before the run moves on.
+	 */
+	public Checkpoint(int numberOfDocuments, int numberOfWords, int k, boolean useAngleDistance, long seed, int iterations, int sameDocuments,
+			double objective, double previousObjective, double largestShift, int[] currentMembership, int[] previousMembership,
+			int[] currentAverageMembership, int[] previousAverageMembership, List<Centroid> kMeans) {
+		this.numberOfDocuments = numberOfDocuments;
+		this.numberOfWords = numberOfWords;
+		this.k = k;
+		this.useAngleDistance = useAngleDistance;
+		this.seed = seed;
+		this.iterations = iterations;
+		this.sameDocuments = sameDocuments;
+		this.objective = objective;
+		this.previousObjective = previousObjective;
+		this.largestShift = largestShift;
+		this.currentMembership = currentMembership;
+		this.previousMembership = previousMembership;
+		this.currentAverageMembership = currentAverageMembership;
+		this.previousAverageMembership = previousAverageMembership;
+		this.kMeans = kMeans;
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Getter functions.
+	 */
+	public int getNumberOfDocuments() { return this.numberOfDocuments; }
+	public int getNumberOfWords() { return this.numberOfWords; }
+	public int getK() { return this.k; }
+	public boolean usesAngleDistance() { return this.useAngleDistance; }
+	public long getSeed() { return this.seed; }
+	public int getIterations() { return this.iterations; }
+	public int getSameDocuments() { return this.sameDocuments; }
+	public double getObjective() { return this.objective; }
+	public double getPreviousObjective() { return this.previousObjective; }
+	public double getLargestShift() { return this.largestShift; }
+	public int[] getCurrentMembership() { return this.currentMembership; }
+	public int[] getPreviousMembership() { return this.previousMembership; }
+	public int[] getCurrentAverageMembership() { return this.currentAverageMembership; }
+	public int[] getPreviousAverageMembership() { return this.previousAverageMembership; }
+	public List<Centroid> getCentroids() { return this.kMeans; }
+
+	/************************* *************************/
+
+	/**
+	 * @description Write the checkpoint to a file. It is written
+	 * under a temporary name and moved into place, so a crash
+	 * while writing leaves the previous checkpoint intact.
+	 */
+	public void write(String filepath) throws IOException {
+		File target = new File(filepath);
+		File tmp = new File(filepath + ".tmp" + System.nanoTime());
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(numberOfDocuments);
+			out.writeInt(numberOfWords);
+			out.writeInt(k);
+			out.writeBoolean(useAngleDistance);
+			out.writeLong(seed);
+			out.writeInt(iterations);
+			out.writeInt(sameDocuments);
+			out.writeDouble(objective);
+			out.writeDouble(previousObjective);
+			out.writeDouble(largestShift);
+			writeInts(out, currentMembership);
+			writeInts(out, previousMembership);
+			writeInts(out, currentAverageMembership);
+			writeInts(out, previousAverageMembership);
+			for (int c = 0; c < k; ++c) {
+				int[] wordIds = kMeans.get(c).getWordIds();
+				double[] weights = kMeans.get(c).getWeights();
+				out.writeInt(wordIds.length);
+				writeInts(out, wordIds);
+				for (int i = 0; i < weights.length; ++i) {
+					out.writeDouble(weights[i]);
+				}
+			}
+		} finally {
+			out.close();
+		}
+		try {
+			Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			tmp.delete();
+		}
+	}
+
+	/**
+	 * @description Read a checkpoint written by write.
+	 */
+	public static Checkpoint read(String filepath) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(filepath), 1 << 16));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("Not a checkpoint file: " + filepath);
+			}
+			int numberOfDocuments = in.readInt();
+			int numberOfWords = in.readInt();
+			int k = in.readInt();
+			boolean useAngleDistance = in.readBoolean();
+			long seed = in.readLong();
+			int iterations = in.readInt();
+			int sameDocuments = in.readInt();
+			double objective = in.readDouble();
+			double previousObjective = in.readDouble();
+			double largestShift = in.readDouble();
+			int[] currentMembership = readInts(in, numberOfDocuments);
+			int[] previousMembership = readInts(in, numberOfDocuments);
+			int[] currentAverageMembership = readInts(in, numberOfDocuments);
+			int[] previousAverageMembership = readInts(in, numberOfDocuments);
+			List<Centroid> kMeans = new ArrayList<Centroid>();
+			for (int c = 0; c < k; ++c) {
+				int size = in.readInt();
+				int[] wordIds = readInts(in, size);
+				double[] weights = new double[size];
+				for (int i = 0; i < size; ++i) {
+					weights[i] = in.readDouble();
+				}
+				kMeans.add(new Centroid(c + 1, wordIds, weights));
+			}
+			return new Checkpoint(numberOfDocuments, numberOfWords, k, useAngleDistance, seed, iterations, sameDocuments, objective,
+					previousObjective, largestShift, currentMembership, previousMembership, currentAverageMembership,
+					previousAverageMembership, kMeans);
+		} finally {
+			in.close();
+		}
+	}
+
+	/************************* *************************/
+
+	private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+		for (int i = 0; i < values.length; ++i) {
+			out.writeInt(values[i]);
+		}
+	}
+
+	private static int[] readInts(DataInputStream in, int length) throws IOException {
+		int[] ans = new int[length];
+		for (int i = 0; i < length; ++i) {
+			ans[i] = in.readInt();
+		}
+		return ans;
+	}
+}
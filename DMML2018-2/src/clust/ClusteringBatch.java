@@ -0,0 +1,150 @@
+package clust;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ds.SparseCorpus;
+
+/**
+ * This class runs a batch of clustering jobs, each a pair
+ * (k, metric), over a single corpus that is loaded once and
+ * shared. Jobs run concurrently on a fixed thread pool, and
+ * each job runs its own assignment step on one thread.
+ *
+ */
+public class ClusteringBatch {
+
+	private SparseCorpus data;
+	private List<Job> jobs;
+	private boolean usePruning;
+	private int signatureLength;
+	private int bands;
+	private CentroidTruncation truncation;
+	private double[] convergence;
+	private Seeding seeding = new EvenlySpacedSeeding();
+	private List<IterationListener> listeners = new ArrayList<IterationListener>();
+
+	/************************* *************************/
+
+	/**
+	 * Constructor
+	 */
+	public ClusteringBatch(SparseCorpus data) {
+		this.data = data;
+		this.jobs = new ArrayList<Job>();
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Add a clustering with k means using the
+	 * given metric to the batch.
+	 */
+	public void addJob(int k, boolean useAngleDistance) {
+		addJob(k, useAngleDistance, 0);
+	}
+
+	/**
+	 * @description Add a clustering job whose seeding uses the
+	 * given random seed, e.g. to restart the same k.
+	 */
+	public void addJob(int k, boolean useAngleDistance, long seed) {
+		jobs.add(new Job(k, useAngleDistance, seed));
+	}
+
+	/**
+	 * @description Setter functions. Pruning applies to the
+	 * angle distance jobs only, MinHash to the Jaccard distance
+	 * jobs only. The seeding is shared by all jobs, so it must
+	 * not keep state between calls.
+	 */
+	public void setPruning(boolean usePruning) { this.usePruning = usePruning; }
+	public void setSeeding(Seeding seeding) { this.seeding = seeding; }
+	public void setMinHash(int signatureLength, int bands) { this.signatureLength = signatureLength; this.bands = bands; }
+	public void setTruncation(CentroidTruncation truncation) { this.truncation = truncation; }
+
+	/**
+	 * @description Convergence criteria for all jobs, see
+	 * KMeansClustering.setConvergence.
+	 */
+	public void setConvergence(double acceptanceThreshold, double objectiveTolerance, double shiftTolerance) {
+		this.convergence = new double[] { acceptanceThreshold, objectiveTolerance, shiftTolerance };
+	}
+
+	/**
+	 * @description Report every iteration of every job to the
+	 * listener, from the job's own thread.
+	 */
+	public void addIterationListener(IterationListener listener) { this.listeners.add(listener); }
+
+	/************************* *************************/
+
+	/**
+	 * @description Run all jobs on the given number of threads
+	 * and return their results in the order they were added.
+	 */
+	public List<ClusteringResult> run(int threads) {
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, jobs.size())));
+		List<ClusteringResult> ans = new ArrayList<ClusteringResult>();
+		try {
+			List<Future<ClusteringResult>> futures = executor.invokeAll(jobs);
+			for (Future<ClusteringResult> future : futures) {
+				ans.add(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw(new RuntimeException("Interrupted while clustering!"));
+		} catch (ExecutionException e) {
+			e.printStackTrace();
+			throw(new RuntimeException("Clustering job failed!", e.getCause()));
+		} finally {
+			executor.shutdownNow();
+		}
+		return ans;
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description A single quiet clustering run over the
+	 * shared corpus.
+	 */
+	private class Job implements Callable<ClusteringResult> {
+
+		private int k;
+		private boolean useAngleDistance;
+		private long seed;
+
+		public Job(int k, boolean useAngleDistance, long seed) {
+			this.k = k;
+			this.useAngleDistance = useAngleDistance;
+			this.seed = seed;
+		}
+
+		public ClusteringResult call() {
+			long start = System.nanoTime();
+			KMeansClustering km = new KMeansClustering(data, k, useAngleDistance, null);
+			km.setVerbose(false);
+			km.setPruning(usePruning);
+			km.setSeeding(seeding);
+			km.setSeed(seed);
+			km.setMinHash(signatureLength, bands);
+			km.setTruncation(truncation);
+			if (convergence != null) {
+				km.setConvergence(convergence[0], convergence[1], convergence[2]);
+			}
+			for (int i = 0; i < listeners.size(); ++i) {
+				km.addIterationListener(listeners.get(i));
+			}
+			km.run();
+			long elapsedMillis = (System.nanoTime() - start) / 1000000;
+			return new ClusteringResult(k, useAngleDistance, seed, km.getIterations(), km.getMembership(), elapsedMillis, km.getOutput(),
+					km.getDistanceEvaluations(), km.getPrunedEvaluations());
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package clust;
+
+/**
+ * This class holds the outcome of one clustering run of a
+ * batch: its parameters, the final memberships and how long
+ * it took.
+ *
+ */
+public class ClusteringResult {
+
+	private int k;
+	private boolean useAngleDistance;
+	private long seed;
+	private int iterations;
+	private int[] membership;
+	private long elapsedMillis;
+	private String output;
+	private long distanceEvaluations;
+	private long prunedEvaluations;
+
+	/************************* *************************/
+
+	/**
+	 * Constructor
+	 */
+	public ClusteringResult(int k, boolean useAngleDistance, long seed, int iterations, int[] membership, long elapsedMillis, String output,
+			long distanceEvaluations, long prunedEvaluations) {
+		this.k = k;
+		this.useAngleDistance = useAngleDistance;
+		this.seed = seed;
+		this.iterations = iterations;
+		this.membership = membership;
+		this.elapsedMillis = elapsedMillis;
+		this.output = output;
+		this.distanceEvaluations = distanceEvaluations;
+		this.prunedEvaluations = prunedEvaluations;
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Getter functions. The membership array holds
+	 * the centroid ID (from 1) of each document, by ID - 1.
+	 */
+	public int getK() { return this.k; }
+	public boolean usesAngleDistance() { return this.useAngleDistance; }
+	public long getSeed() { return this.seed; }
+	public int getIterations() { return this.iterations; }
+	public int[] getMembership() { return this.membership; }
+	public long getElapsedMillis() { return this.elapsedMillis; }
+	public String getOutput() { return this.output; }
+	public long getDistanceEvaluations() { return this.distanceEvaluations; }
+	public long getPrunedEvaluations() { return this.prunedEvaluations; }
+
+	/************************* *************************/
+
+	/**
+	 * @description returns the number of documents in each
+	 * cluster
+	 */
+	public int[] getClusterSizes() {
+		int[] sizes = new int[k];
+		for (int i = 0; i < membership.length; ++i) {
+			sizes[membership[i] - 1]++;
+		}
+		return sizes;
+	}
+
+	public String toString() {
+		return "k=" + k + ", " + (useAngleDistance ? "angle" : "jaccard") + ": " + iterations + " iterations, " + elapsedMillis + " ms, "
+				+ distanceEvaluations + " distances (" + prunedEvaluations + " pruned)";
+	}
+}
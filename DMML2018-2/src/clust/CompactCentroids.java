@@ -0,0 +1,221 @@
+package clust;
+
+import java.util.Arrays;
+import java.util.List;
+
+import ds.Centroid;
+import ds.SparseCorpus;
+
+/**
+ * Reduced-precision storage for the angle distance kernel.
+ * Documents are stored as unit tf-idf vectors, either as
+ * floats or quantised to 8 bits with a scale per document,
+ * and the centroids as unit directions: a dense word-major
+ * float matrix as in DenseCentroids while it is small, an
+ * inverted index as in InvertedCentroids otherwise. The
+ * angle is then the arc cosine of a plain dot product,
+ * accumulated in double. Per nonzero, the kernel reads a
+ * word ID and a float or a byte instead of a double count
+ * and a double idf weight, and every centroid weight it
+ * gathers from the matrix is a float instead of a double.
+ * The postings keep double weights: scattered float to
+ * double conversions cost more than the bandwidth they save.
+ *
+ * The weights replace the double counts in the kernel, and
+ * KMeansClustering keeps the counts the centroids are averaged
+ * from as shorts or ints (see SparseCorpus.compactCounts), so
+ * no double copy of the corpus stays alive. The centroids
+ * themselves are still computed in double precision, so only
+ * the assignments can drift from the double precision path,
+ * on documents almost equally close to two centroids;
+ * CompactCentroidsTest bounds by how much.
+ *
+ */
+public class CompactCentroids {
+
+	// 4 MB of floats, as for DenseCentroids.
+	private static final long MAX_DENSE_ENTRIES = 1L << 20;
+
+	private SparseCorpus data;
+	private int k;
+	private double[] idf;
+
+	// Unit tf-idf weights of every nonzero: floats, or bytes
+	// times the scale of their document.
+	private float[] documentWeights;
+	private byte[] quantisedWeights;
+	private float[] documentScales;
+
+	// Unit centroid directions, dense word-major or as postings
+	// by word (see InvertedCentroids). Centroids of norm 0 have
+	// no direction.
+	private float[] denseDirections;
+	private int[] postingStart;
+	private int[] postingCentroids;
+	private double[] postingWeights;
+	private boolean[] undefined;
+
+	/************************* *************************/
+
+	/**
+	 * Constructor. The precision is FLOAT or QUANTISED. The
+	 * corpus may keep its counts compact.
+	 */
+	public CompactCentroids(SparseCorpus data, int k, Precision precision) {
+		if (precision != Precision.FLOAT && precision != Precision.QUANTISED) {
+			throw(new RuntimeException("Compact centroids need float or quantised precision!"));
+		}
+		this.data = data;
+		this.k = k;
+		this.idf = data.getIdf();
+		this.undefined = new boolean[k];
+		int numberOfWords = data.getNumberOfWords();
+		if ((long) numberOfWords * k <= MAX_DENSE_ENTRIES) {
+			this.denseDirections = new float[numberOfWords * k];
+		} else {
+			this.postingStart = new int[numberOfWords + 1];
+		}
+
+		int numberOfDocuments = data.getNumberOfDocuments();
+		int[] wordIds = data.getWordIds();
+		double[] documentNorms = data.getDocumentNorms();
+		if (precision == Precision.FLOAT) {
+			this.documentWeights = new float[wordIds.length];
+		} else {
+			this.quantisedWeights = new byte[wordIds.length];
+			this.documentScales = new float[numberOfDocuments];
+		}
+		for (int d = 0; d < numberOfDocuments; ++d) {
+			int start = data.getRowStart(d + 1);
+			int end = data.getRowEnd(d + 1);
+			if (documentNorms[d] == 0) {
+				continue;
+			}
+			double inverseLength = 1 / Math.sqrt(documentNorms[d]);
+			if (precision == Precision.FLOAT) {
+				for (int i = start; i < end; ++i) {
+					documentWeights[i] = (float) (data.getCount(i) * idf[wordIds[i] - 1] * inverseLength);
+				}
+			} else {
+				// Each weight becomes a multiple of 1/255 of the largest.
+				double largest = 0;
+				for (int i = start; i < end; ++i) {
+					largest = Math.max(largest, data.getCount(i) * idf[wordIds[i] - 1] * inverseLength);
+				}
+				documentScales[d] = (float) (largest / 255);
+				for (int i = start; i < end; ++i) {
+					quantisedWeights[i] = (byte) Math.round(255 * data.getCount(i) * idf[wordIds[i] - 1] * inverseLength / largest);
+				}
+			}
+		}
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Store the unit directions of the centroids.
+	 * Must be called whenever the centroids change.
+	 */
+	public void setCentroids(List<Centroid> kMeans, double[] centroidNorms) {
+		int numberOfWords = data.getNumberOfWords();
+		if (denseDirections != null) {
+			Arrays.fill(denseDirections, 0);
+		} else {
+			Arrays.fill(postingStart, 0);
+		}
+		int numberOfPostings = 0;
+		for (int c = 0; c < k; ++c) {
+			int[] wordIds = kMeans.get(c).getWordIds();
+			double[] weights = kMeans.get(c).getWeights();
+			undefined[c] = centroidNorms[c] == 0;
+			double inverseLength = undefined[c] ? 0 : 1 / Math.sqrt(centroidNorms[c]);
+			for (int i = 0; i < wordIds.length; ++i) {
+				if (denseDirections != null) {
+					denseDirections[(wordIds[i] - 1) * k + c] = (float) (weights[i] * idf[wordIds[i] - 1] * inverseLength);
+				} else {
+					postingStart[wordIds[i]]++;
+				}
+			}
+			numberOfPostings += wordIds.length;
+		}
+		if (denseDirections != null) {
+			return;
+		}
+
+		// Counting sort of the centroid terms by word.
+		for (int w = 0; w < numberOfWords; ++w) {
+			postingStart[w + 1] += postingStart[w];
+		}
+		if (postingCentroids == null || postingCentroids.length < numberOfPostings) {
+			this.postingCentroids = new int[numberOfPostings];
+			this.postingWeights = new double[numberOfPostings];
+		}
+		int[] next = Arrays.copyOf(postingStart, numberOfWords);
+		for (int c = 0; c < k; ++c) {
+			int[] wordIds = kMeans.get(c).getWordIds();
+			double[] weights = kMeans.get(c).getWeights();
+			double inverseLength = undefined[c] ? 0 : 1 / Math.sqrt(centroidNorms[c]);
+			for (int i = 0; i < wordIds.length; ++i) {
+				int p = next[wordIds[i] - 1]++;
+				postingCentroids[p] = c;
+				postingWeights[p] = weights[i] * idf[wordIds[i] - 1] * inverseLength;
+			}
+		}
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Angles from a document to all centroids,
+	 * written to distances[0, k). As in the double precision
+	 * path, the angle is NaN if the document or the centroid has
+	 * norm 0.
+	 */
+	public void distances(int documentId, double[] distances) {
+		int[] wordIds = data.getWordIds();
+		int start = data.getRowStart(documentId);
+		int end = data.getRowEnd(documentId);
+		for (int c = 0; c < k; ++c) {
+			distances[c] = 0;
+		}
+		if (denseDirections != null && documentWeights != null) {
+			for (int i = start; i < end; ++i) {
+				gather(wordIds[i] - 1, documentWeights[i], distances);
+			}
+		} else if (denseDirections != null) {
+			for (int i = start; i < end; ++i) {
+				gather(wordIds[i] - 1, quantisedWeights[i] & 0xff, distances);
+			}
+		} else if (documentWeights != null) {
+			for (int i = start; i < end; ++i) {
+				scatter(wordIds[i] - 1, documentWeights[i], distances);
+			}
+		} else {
+			for (int i = start; i < end; ++i) {
+				scatter(wordIds[i] - 1, quantisedWeights[i] & 0xff, distances);
+			}
+		}
+		double scale = documentWeights != null ? 1 : documentScales[documentId - 1];
+		boolean empty = data.getDocumentNorms()[documentId - 1] == 0;
+		for (int c = 0; c < k; ++c) {
+			distances[c] = empty || undefined[c] ? Double.NaN : Math.acos(Math.min(1, distances[c] * scale));
+		}
+	}
+
+	/**
+	 * @description Add the weighted directions of all centroids
+	 * for a word: from the dense matrix, or from the postings.
+	 */
+	private void gather(int w, double weight, double[] dots) {
+		int base = w * k;
+		for (int c = 0; c < k; ++c) {
+			dots[c] += weight * denseDirections[base + c];
+		}
+	}
+
+	private void scatter(int w, double weight, double[] dots) {
+		for (int p = postingStart[w]; p < postingStart[w + 1]; ++p) {
+			dots[postingCentroids[p]] += weight * postingWeights[p];
+		}
+	}
+}
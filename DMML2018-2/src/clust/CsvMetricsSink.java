@@ -0,0 +1,36 @@
+package clust;
+
+import java.io.IOException;
+
+/**
+ * Writes iteration metrics as comma separated values with a
+ * header line.
+ *
+ */
+public class CsvMetricsSink extends MetricsSink {
+
+	private static final String HEADER = "k,metric,iteration,assignment_ns,update_ns,distance_evaluations,pruned_evaluations,"
+			+ "changed_documents,objective,centroid_terms,truncated_terms,allocated_bytes";
+
+	/************************* *************************/
+
+	/**
+	 * Constructor
+	 */
+	public CsvMetricsSink(String filepath, boolean append) throws IOException {
+		super(filepath, append);
+	}
+
+	/************************* *************************/
+
+	protected String getHeader() {
+		return HEADER;
+	}
+
+	protected String format(IterationMetrics metrics) {
+		return metrics.getK() + "," + (metrics.usesAngleDistance() ? "angle" : "jaccard") + "," + metrics.getIteration() + ","
+				+ metrics.getAssignmentNanos() + "," + metrics.getUpdateNanos() + "," + metrics.getDistanceEvaluations() + ","
+				+ metrics.getPrunedEvaluations() + "," + metrics.getChangedDocuments() + "," + metrics.getObjective() + ","
+				+ metrics.getCentroidTerms() + "," + metrics.getTruncatedTerms() + "," + metrics.getAllocatedBytes();
+	}
+}
@@ -0,0 +1,109 @@
+package clust;
+
+import java.util.Arrays;
+import java.util.List;
+
+import ds.Centroid;
+import ds.SparseCorpus;
+
+/**
+ * The k centroids as one dense word-major matrix, so that a
+ * document's distances to all of them take a single gather
+ * over its own words instead of k merges with long sparse
+ * centroids. Pays off while the matrix is small enough to
+ * stay in cache, i.e. for small vocabularies and small k.
+ *
+ */
+public class DenseCentroids {
+
+	// 4 MB of doubles, about the size of a last-level cache share.
+	private static final long MAX_ENTRIES = 1L << 19;
+
+	private SparseCorpus data;
+	private int k;
+	private boolean useAngleDistance;
+	private double[] centroids;
+	private double[] idfSquared;
+	private double[] centroidNorms;
+	private int[] centroidSupports;
+
+	/************************* *************************/
+
+	/**
+	 * Constructor
+	 */
+	public DenseCentroids(SparseCorpus data, int k, boolean useAngleDistance) {
+		this.data = data;
+		this.k = k;
+		this.useAngleDistance = useAngleDistance;
+		this.centroids = new double[data.getNumberOfWords() * k];
+		this.centroidSupports = new int[k];
+		double[] idf = data.getIdf();
+		this.idfSquared = new double[idf.length];
+		for (int w = 0; w < idf.length; ++w) {
+			idfSquared[w] = idf[w] * idf[w];
+		}
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Whether k dense centroids over the vocabulary
+	 * are small enough for this mode to be chosen automatically.
+	 */
+	public static boolean fits(int numberOfWords, int k) {
+		return (long) numberOfWords * k <= MAX_ENTRIES;
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Scatter the centroids into the matrix: their
+	 * weights for the angle, or 1 for every word in their
+	 * support for the Jaccard distance. Must be called whenever
+	 * the centroids change.
+	 */
+	public void setCentroids(List<Centroid> kMeans, double[] centroidNorms) {
+		this.centroidNorms = centroidNorms;
+		Arrays.fill(centroids, 0);
+		for (int c = 0; c < k; ++c) {
+			int[] wordIds = kMeans.get(c).getWordIds();
+			double[] weights = kMeans.get(c).getWeights();
+			centroidSupports[c] = wordIds.length;
+			for (int i = 0; i < wordIds.length; ++i) {
+				centroids[(wordIds[i] - 1) * k + c] = useAngleDistance ? weights[i] : 1;
+			}
+		}
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Distances from a document to all centroids,
+	 * written to distances[0, k).
+	 */
+	public void distances(int documentId, double[] distances) {
+		if (useAngleDistance) {
+			Distances.anglesToAll(data.getWordIds(), data.getCounts(), data.getRowStart(documentId), data.getRowEnd(documentId),
+					data.getDocumentNorms()[documentId - 1], centroids, k, idfSquared, centroidNorms, distances);
+		} else {
+			Distances.jaccardsToAll(data.getWordIds(), data.getRowStart(documentId), data.getRowEnd(documentId), centroids, k,
+					centroidSupports, distances);
+		}
+	}
+
+	/**
+	 * @description Angle between a document and one centroid
+	 * (from 0), as a strided gather.
+	 */
+	public double angle(int documentId, int centroidIndex) {
+		int[] wordIds = data.getWordIds();
+		double[] counts = data.getCounts();
+		double dotProduct = 0;
+		for (int i = data.getRowStart(documentId); i < data.getRowEnd(documentId); ++i) {
+			int w = wordIds[i] - 1;
+			dotProduct += counts[i]*centroids[w * k + centroidIndex]*idfSquared[w];
+		}
+		return Math.acos(Math.min(1, dotProduct/Math.sqrt(data.getDocumentNorms()[documentId - 1]*centroidNorms[centroidIndex])));
+	}
+}
@@ -0,0 +1,165 @@
+package clust;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import ds.SparseCorpus;
+
+/**
+ * Shared machinery for seedings that sample documents by
+ * their distance to the seeds chosen so far: the distance of
+ * every document to its nearest seed, kept up to date as
+ * seeds are added, and sampling in proportion to weights.
+ * Documents whose distances are undefined (e.g. empty ones
+ * under the angle metric) get weight 0.
+ *
+ */
+public abstract class DistanceSeeding implements Seeding {
+
+	private static final int UPDATE_CHUNK_SIZE = 256;
+
+	/************************* *************************/
+
+	/**
+	 * @description State of one seeding run: the nearest seed
+	 * of every document (as an index into the seed list) and
+	 * the distance to it.
+	 */
+	protected static class Nearest {
+
+		protected SparseCorpus data;
+		protected boolean useAngleDistance;
+		protected double[] distances;
+		protected int[] seedIndices;
+		protected int[][] seedWords;
+		protected double[][] seedWeights;
+		protected double[] seedNorms;
+		protected int numberOfSeeds;
+
+		public Nearest(SparseCorpus data, boolean useAngleDistance, int capacity) {
+			this.data = data;
+			this.useAngleDistance = useAngleDistance;
+			this.distances = new double[data.getNumberOfDocuments()];
+			this.seedIndices = new int[data.getNumberOfDocuments()];
+			Arrays.fill(distances, Double.POSITIVE_INFINITY);
+			Arrays.fill(seedIndices, -1);
+			this.seedWords = new int[capacity][];
+			this.seedWeights = new double[capacity][];
+			this.seedNorms = new double[capacity];
+		}
+
+		/**
+		 * @description Add the documents documentIds[from, to) as
+		 * seeds and update every document's nearest seed.
+		 */
+		public void addSeeds(int[] documentIds, int from, int to, ForkJoinPool pool) {
+			int first = numberOfSeeds;
+			for (int i = from; i < to; ++i) {
+				if (numberOfSeeds == seedWords.length) {
+					int capacity = 2 * seedWords.length + 1;
+					seedWords = Arrays.copyOf(seedWords, capacity);
+					seedWeights = Arrays.copyOf(seedWeights, capacity);
+					seedNorms = Arrays.copyOf(seedNorms, capacity);
+				}
+				int documentId = documentIds[i];
+				seedWords[numberOfSeeds] = Arrays.copyOfRange(data.getWordIds(), data.getRowStart(documentId), data.getRowEnd(documentId));
+				seedWeights[numberOfSeeds] = new double[data.getDocumentLength(documentId)];
+				for (int j = 0; j < seedWeights[numberOfSeeds].length; ++j) {
+					seedWeights[numberOfSeeds][j] = data.getCount(data.getRowStart(documentId) + j);
+				}
+				seedNorms[numberOfSeeds++] = data.getDocumentNorms()[documentId - 1];
+			}
+			if (pool != null) {
+				pool.invoke(new UpdateTask(this, first, 1, data.getNumberOfDocuments() + 1));
+			} else {
+				update(first, 1, data.getNumberOfDocuments() + 1);
+			}
+		}
+
+		/**
+		 * @description Weight of a document for D^2 sampling.
+		 */
+		public double weight(int documentId) {
+			double distance = distances[documentId - 1];
+			return distance < Double.POSITIVE_INFINITY ? distance * distance : 0;
+		}
+
+		public double distance(int documentId, int[] words, double[] weights, double norm) {
+			if (useAngleDistance) {
+				return Distances.angle(data, documentId, words, weights, norm);
+			} else {
+				return Distances.jaccard(data.getWordIds(), data.getRowStart(documentId), data.getRowEnd(documentId), words);
+			}
+		}
+
+		private void update(int firstSeed, int from, int to) {
+			for (int documentId = from; documentId < to; ++documentId) {
+				for (int s = firstSeed; s < numberOfSeeds; ++s) {
+					double distance = distance(documentId, seedWords[s], seedWeights[s], seedNorms[s]);
+					if (distance < distances[documentId - 1]) {
+						distances[documentId - 1] = distance;
+						seedIndices[documentId - 1] = s;
+					}
+				}
+			}
+		}
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Updates the documents [from, to) against the
+	 * seeds added since firstSeed.
+	 */
+	@SuppressWarnings("serial")
+	private static class UpdateTask extends RecursiveAction {
+
+		private Nearest nearest;
+		private int firstSeed;
+		private int from;
+		private int to;
+
+		public UpdateTask(Nearest nearest, int firstSeed, int from, int to) {
+			this.nearest = nearest;
+			this.firstSeed = firstSeed;
+			this.from = from;
+			this.to = to;
+		}
+
+		protected void compute() {
+			if (to - from <= UPDATE_CHUNK_SIZE) {
+				nearest.update(firstSeed, from, to);
+			} else {
+				int mid = (from + to) >>> 1;
+				invokeAll(new UpdateTask(nearest, firstSeed, from, mid), new UpdateTask(nearest, firstSeed, mid, to));
+			}
+		}
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Pick an index with probability proportional
+	 * to its weight, given the total weight and a uniform
+	 * number in [0, 1). Returns -1 if all weights are 0.
+	 */
+	protected static int sampleProportional(double[] weights, int length, double total, double uniform) {
+		if (!(total > 0)) {
+			return -1;
+		}
+		double target = uniform * total;
+		double cumulative = 0;
+		int last = -1;
+		for (int i = 0; i < length; ++i) {
+			if (weights[i] > 0) {
+				cumulative += weights[i];
+				last = i;
+				if (cumulative > target) {
+					return i;
+				}
+			}
+		}
+		return last;
+	}
+}
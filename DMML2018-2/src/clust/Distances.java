@@ -0,0 +1,271 @@
+package clust;
+
+import ds.SparseCorpus;
+
+/**
+ * Distance kernels between a sparse document and a centroid.
+ * Documents are given as a slice [start, end) of the corpus
+ * word ID and count arrays. Centroids are either sparse, as
+ * parallel word ID and weight arrays sorted by word ID, or
+ * dense, as one weight per word indexed by word ID - 1.
+ * Angle kernels weight words by tf-idf and take squared
+ * norms, which callers are expected to cache.
+ *
+ */
+public class Distances {
+
+	/************************* *************************/
+
+	/**
+	 * @description Find the angle between a document and a
+	 * sparse centroid in the vector model using tf-idf weights
+	 * for words. Only the shared words contribute to the dot
+	 * product. The cosine is capped at 1, so parallel vectors
+	 * are at angle 0 rather than NaN.
+	 */
+	public static double angle(int[] wordIds, double[] counts, int start, int end, double documentNorm,
+			int[] centroidWords, double[] centroidWeights, double centroidNorm, double[] idf) {
+		double dotProduct = 0;
+		double tempIDF = 0;
+		int documentCounter = start;
+		int centroidCounter = 0;
+		int centroidSize = centroidWords.length;
+		int currentCentroidWord = 0;
+		int currentDocumentWord = 0;
+		while(documentCounter < end && centroidCounter < centroidSize) {
+			currentCentroidWord = centroidWords[centroidCounter];
+			currentDocumentWord = wordIds[documentCounter];
+			if(currentDocumentWord < currentCentroidWord) {
+				documentCounter++;
+			} else if(currentDocumentWord > currentCentroidWord) {
+				centroidCounter++;
+			} else {
+				tempIDF = idf[currentDocumentWord-1];
+				dotProduct += counts[documentCounter++]*centroidWeights[centroidCounter++]*(tempIDF*tempIDF);
+			}
+		}
+		return Math.acos(Math.min(1, dotProduct/Math.sqrt(documentNorm*centroidNorm)));
+	}
+
+	/**
+	 * @description The same angle for a document of a corpus
+	 * given by ID, which may keep its counts compact (see
+	 * SparseCorpus.compactCounts). The result is the same to the
+	 * last bit either way.
+	 */
+	public static double angle(SparseCorpus data, int documentId, int[] centroidWords, double[] centroidWeights, double centroidNorm) {
+		int[] wordIds = data.getWordIds();
+		int start = data.getRowStart(documentId);
+		int end = data.getRowEnd(documentId);
+		double documentNorm = data.getDocumentNorms()[documentId-1];
+		if (data.getCounts() != null) {
+			return angle(wordIds, data.getCounts(), start, end, documentNorm, centroidWords, centroidWeights, centroidNorm, data.getIdf());
+		}
+		double[] idf = data.getIdf();
+		double dotProduct = 0;
+		double tempIDF = 0;
+		int documentCounter = start;
+		int centroidCounter = 0;
+		while(documentCounter < end && centroidCounter < centroidWords.length) {
+			if(wordIds[documentCounter] < centroidWords[centroidCounter]) {
+				documentCounter++;
+			} else if(wordIds[documentCounter] > centroidWords[centroidCounter]) {
+				centroidCounter++;
+			} else {
+				tempIDF = idf[wordIds[documentCounter]-1];
+				dotProduct += data.getCount(documentCounter++)*centroidWeights[centroidCounter++]*(tempIDF*tempIDF);
+			}
+		}
+		return Math.acos(Math.min(1, dotProduct/Math.sqrt(documentNorm*centroidNorm)));
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Find the Jaccard distance between a document
+	 * and a sparse centroid. Jaccard distance is the ratio
+	 * between the sizes of symmetric difference and union.
+	 * Note that this converts our model from 'bag of words' to
+	 * 'set of words'.
+	 */
+	public static double jaccard(int[] wordIds, int start, int end, int[] centroidWords) {
+		int intersection = 0;
+		int dataCounter = start, centroidCounter = 0;
+		int centroidSize = centroidWords.length;
+
+		// Calculate cardinality of intersection. Once either side
+		// runs out there is nothing left to intersect.
+		while(dataCounter < end && centroidCounter < centroidSize) {
+			if(wordIds[dataCounter] < centroidWords[centroidCounter]) {
+				dataCounter++;
+			} else if(wordIds[dataCounter] > centroidWords[centroidCounter]) {
+				centroidCounter++;
+			} else {
+				intersection++;
+				dataCounter++;
+				centroidCounter++;
+			}
+		}
+
+		// Calculate cardinality of union and symmetric difference.
+		int union = (end - start) + centroidSize - intersection;
+		int symmetricDifference = union - intersection;
+		return (double)symmetricDifference/(double)union;
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Angle between a document and a dense
+	 * centroid. Only the document's own words are visited.
+	 */
+	public static double angleToDense(int[] wordIds, double[] counts, int start, int end, double documentNorm,
+			double[] centroid, double centroidNorm, double[] idf) {
+		return Math.acos(Math.min(1, dotToDense(wordIds, counts, start, end, centroid, idf)/Math.sqrt(documentNorm*centroidNorm)));
+	}
+
+	/**
+	 * @description The tf-idf dot product of a document and a
+	 * dense centroid.
+	 */
+	public static double dotToDense(int[] wordIds, double[] counts, int start, int end, double[] centroid, double[] idf) {
+		double dotProduct = 0;
+		for (int i = start; i < end; ++i) {
+			int w = wordIds[i] - 1;
+			double tempIDF = idf[w];
+			dotProduct += counts[i]*centroid[w]*(tempIDF*tempIDF);
+		}
+		return dotProduct;
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Jaccard distance between a document and a
+	 * dense centroid whose support, the number of nonzero
+	 * weights, is given.
+	 */
+	public static double jaccardToDense(int[] wordIds, int start, int end, double[] centroid, int centroidSupport) {
+		int intersection = 0;
+		for (int i = start; i < end; ++i) {
+			if (centroid[wordIds[i] - 1] != 0) {
+				intersection++;
+			}
+		}
+		int union = (end - start) + centroidSupport - intersection;
+		return (double)(union - intersection)/(double)union;
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Angles between a document and all k dense
+	 * centroids in one pass over the document. The centroids are
+	 * stored word-major: the k weights of word w are at
+	 * [(w-1)*k, w*k). Per word, the inner loop over the centroids
+	 * is branch-free and contiguous, so the JIT can vectorise it.
+	 * The products are formed as in angle, so the results are
+	 * the same to the last bit.
+	 */
+	public static void anglesToAll(int[] wordIds, double[] counts, int start, int end, double documentNorm,
+			double[] centroids, int k, double[] idfSquared, double[] centroidNorms, double[] distances) {
+		for (int c = 0; c < k; ++c) {
+			distances[c] = 0;
+		}
+		for (int i = start; i < end; ++i) {
+			int w = wordIds[i] - 1;
+			int base = w * k;
+			double count = counts[i];
+			double tempIDF = idfSquared[w];
+			for (int c = 0; c < k; ++c) {
+				distances[c] += count*centroids[base + c]*tempIDF;
+			}
+		}
+		for (int c = 0; c < k; ++c) {
+			distances[c] = Math.acos(Math.min(1, distances[c]/Math.sqrt(documentNorm*centroidNorms[c])));
+		}
+	}
+
+	/**
+	 * @description Jaccard distances between a document and all
+	 * k dense centroids in one pass, where the word-major matrix
+	 * holds 1 for every word in a centroid's support and 0
+	 * otherwise.
+	 */
+	public static void jaccardsToAll(int[] wordIds, int start, int end, double[] centroids, int k, int[] centroidSupports, double[] distances) {
+		for (int c = 0; c < k; ++c) {
+			distances[c] = 0;
+		}
+		for (int i = start; i < end; ++i) {
+			int base = (wordIds[i] - 1) * k;
+			for (int c = 0; c < k; ++c) {
+				distances[c] += centroids[base + c];
+			}
+		}
+		for (int c = 0; c < k; ++c) {
+			double intersection = distances[c];
+			double union = (end - start) + centroidSupports[c] - intersection;
+			distances[c] = (union - intersection)/union;
+		}
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Plain dot product of a document slice, with
+	 * weights parallel to the word IDs, and a sparse centroid.
+	 * For unit vectors this is the cosine, so the closest
+	 * centroid is the one with the largest dot product.
+	 */
+	public static double dot(int[] wordIds, double[] weights, int start, int end, int[] centroidWords, double[] centroidWeights) {
+		double dotProduct = 0;
+		int documentCounter = start;
+		int centroidCounter = 0;
+		int centroidSize = centroidWords.length;
+		while (documentCounter < end && centroidCounter < centroidSize) {
+			int currentDocumentWord = wordIds[documentCounter];
+			int currentCentroidWord = centroidWords[centroidCounter];
+			if (currentDocumentWord < currentCentroidWord) {
+				documentCounter++;
+			} else if (currentDocumentWord > currentCentroidWord) {
+				centroidCounter++;
+			} else {
+				dotProduct += weights[documentCounter++]*centroidWeights[centroidCounter++];
+			}
+		}
+		return dotProduct;
+	}
+
+	/**
+	 * @description Plain dot products of a document slice with
+	 * all k centroids of a word-major dense matrix, as in
+	 * anglesToAll but without weighting or normalisation.
+	 */
+	public static void dotsToAll(int[] wordIds, double[] weights, int start, int end, double[] centroids, int k, double[] dots) {
+		for (int c = 0; c < k; ++c) {
+			dots[c] = 0;
+		}
+		for (int i = start; i < end; ++i) {
+			int base = (wordIds[i] - 1) * k;
+			double weight = weights[i];
+			for (int c = 0; c < k; ++c) {
+				dots[c] += weight*centroids[base + c];
+			}
+		}
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description The squared tf-idf norm of a sparse vector.
+	 */
+	public static double squaredNorm(int[] words, double[] weights, int start, int end, double[] idf) {
+		double norm = 0;
+		double weight = 0;
+		for (int i = start; i < end; ++i) {
+			weight = weights[i]*idf[words[i]-1];
+			norm += weight*weight;
+		}
+		return norm;
+	}
+}
@@ -0,0 +1,26 @@
+package clust;
+
+import java.util.concurrent.ForkJoinPool;
+
+import ds.SparseCorpus;
+
+/**
+ * The original seeding: k documents distributed equally by
+ * document ID. The random seed is ignored.
+ *
+ */
+public class EvenlySpacedSeeding implements Seeding {
+
+	public int[] chooseSeeds(SparseCorpus data, int k, boolean useAngleDistance, long seed, ForkJoinPool pool) {
+		int[] ans = new int[k];
+		int d = data.getNumberOfDocuments() / k;
+		for (int i = 1; i <= k; ++i) {
+			ans[i - 1] = d * i;
+		}
+		return ans;
+	}
+
+	public String toString() {
+		return "evenly spaced";
+	}
+}
@@ -0,0 +1,136 @@
+package clust;
+
+import java.util.Arrays;
+import java.util.List;
+
+import ds.Centroid;
+import ds.SparseCorpus;
+
+/**
+ * The k centroids as an inverted index from word to the
+ * centroids that contain it, with their weights. A document is
+ * scored against all centroids at once by walking the postings
+ * of its own words, so the work is the number of (word,
+ * centroid) pairs it shares with the centroids rather than k
+ * merges with their whole supports. This is the kernel for
+ * large k and vocabularies, where the dense matrix of
+ * DenseCentroids does not fit.
+ *
+ */
+public class InvertedCentroids {
+
+	private SparseCorpus data;
+	private int k;
+	private boolean useAngleDistance;
+	private double[] idfSquared;
+	private double[] centroidNorms;
+	private int[] centroidSupports;
+
+	// The postings of word w are at [postingStart[w-1],
+	// postingStart[w]), in increasing centroid order.
+	private int[] postingStart;
+	private int[] postingCentroids;
+	private double[] postingWeights;
+
+	/************************* *************************/
+
+	/**
+	 * Constructor
+	 */
+	public InvertedCentroids(SparseCorpus data, int k, boolean useAngleDistance) {
+		this.data = data;
+		this.k = k;
+		this.useAngleDistance = useAngleDistance;
+		this.centroidSupports = new int[k];
+		this.postingStart = new int[data.getNumberOfWords() + 1];
+		double[] idf = data.getIdf();
+		this.idfSquared = new double[idf.length];
+		for (int w = 0; w < idf.length; ++w) {
+			idfSquared[w] = idf[w] * idf[w];
+		}
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Rebuild the index with a counting sort of the
+	 * centroid terms by word. Must be called whenever the
+	 * centroids change.
+	 */
+	public void setCentroids(List<Centroid> kMeans, double[] centroidNorms) {
+		this.centroidNorms = centroidNorms;
+		int numberOfWords = data.getNumberOfWords();
+		Arrays.fill(postingStart, 0);
+		int numberOfPostings = 0;
+		for (int c = 0; c < k; ++c) {
+			int[] wordIds = kMeans.get(c).getWordIds();
+			centroidSupports[c] = wordIds.length;
+			numberOfPostings += wordIds.length;
+			for (int i = 0; i < wordIds.length; ++i) {
+				postingStart[wordIds[i]]++;
+			}
+		}
+		for (int w = 0; w < numberOfWords; ++w) {
+			postingStart[w + 1] += postingStart[w];
+		}
+		if (postingCentroids == null || postingCentroids.length < numberOfPostings) {
+			this.postingCentroids = new int[numberOfPostings];
+			this.postingWeights = new double[numberOfPostings];
+		}
+		int[] next = Arrays.copyOf(postingStart, numberOfWords);
+		for (int c = 0; c < k; ++c) {
+			int[] wordIds = kMeans.get(c).getWordIds();
+			double[] weights = kMeans.get(c).getWeights();
+			for (int i = 0; i < wordIds.length; ++i) {
+				int p = next[wordIds[i] - 1]++;
+				postingCentroids[p] = c;
+				postingWeights[p] = weights[i];
+			}
+		}
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Distances from a document to all centroids,
+	 * written to distances[0, k). The dot products and
+	 * intersections are summed in the document's word order, as
+	 * in the sparse kernels, so the results are the same to the
+	 * last bit.
+	 */
+	public void distances(int documentId, double[] distances) {
+		int[] wordIds = data.getWordIds();
+		double[] counts = data.getCounts();
+		int start = data.getRowStart(documentId);
+		int end = data.getRowEnd(documentId);
+		for (int c = 0; c < k; ++c) {
+			distances[c] = 0;
+		}
+		if (useAngleDistance) {
+			for (int i = start; i < end; ++i) {
+				int w = wordIds[i] - 1;
+				double count = counts[i];
+				double tempIDF = idfSquared[w];
+				for (int p = postingStart[w]; p < postingStart[w + 1]; ++p) {
+					distances[postingCentroids[p]] += count*postingWeights[p]*tempIDF;
+				}
+			}
+			double documentNorm = data.getDocumentNorms()[documentId - 1];
+			for (int c = 0; c < k; ++c) {
+				distances[c] = Math.acos(Math.min(1, distances[c]/Math.sqrt(documentNorm*centroidNorms[c])));
+			}
+		} else {
+			for (int i = start; i < end; ++i) {
+				int w = wordIds[i] - 1;
+				for (int p = postingStart[w]; p < postingStart[w + 1]; ++p) {
+					distances[postingCentroids[p]]++;
+				}
+			}
+			for (int c = 0; c < k; ++c) {
+				double intersection = distances[c];
+				double union = (end - start) + centroidSupports[c] - intersection;
+				distances[c] = (union - intersection)/union;
+			}
+		}
+	}
+}
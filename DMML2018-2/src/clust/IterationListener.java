@@ -0,0 +1,16 @@
+package clust;
+
+/**
+ * Receives the metrics of every iteration of a clustering
+ * run. Runs of a batch share their listeners and report from
+ * their own threads, so implementations must be thread-safe.
+ *
+ */
+public interface IterationListener {
+
+	/**
+	 * @description Called after the centroids of an iteration
+	 * have been recomputed.
+	 */
+	public void iterationCompleted(IterationMetrics metrics);
+}
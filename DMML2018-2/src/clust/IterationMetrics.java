@@ -0,0 +1,79 @@
+package clust;
+
+/**
+ * Measurements of one iteration of a clustering run: how
+ * long the assignment and update steps took, how many
+ * distances were computed or pruned, how many documents
+ * changed cluster, the objective and the bytes allocated.
+ *
+ */
+public class IterationMetrics {
+
+	private int k;
+	private boolean useAngleDistance;
+	private int iteration;
+	private long assignmentNanos;
+	private long updateNanos;
+	private long distanceEvaluations;
+	private long prunedEvaluations;
+	private int changedDocuments;
+	private double objective;
+	private long centroidTerms;
+	private long truncatedTerms;
+	private long allocatedBytes;
+
+	/************************* *************************/
+
+	/**
+	 * Constructor
+	 */
+	public IterationMetrics(int k, boolean useAngleDistance, int iteration, long assignmentNanos, long updateNanos, long distanceEvaluations,
+			long prunedEvaluations, int changedDocuments, double objective, long centroidTerms, long truncatedTerms, long allocatedBytes) {
+		this.k = k;
+		this.useAngleDistance = useAngleDistance;
+		this.iteration = iteration;
+		this.assignmentNanos = assignmentNanos;
+		this.updateNanos = updateNanos;
+		this.distanceEvaluations = distanceEvaluations;
+		this.prunedEvaluations = prunedEvaluations;
+		this.changedDocuments = changedDocuments;
+		this.objective = objective;
+		this.centroidTerms = centroidTerms;
+		this.truncatedTerms = truncatedTerms;
+		this.allocatedBytes = allocatedBytes;
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Getter functions. The objective is the sum of
+	 * squared distances of the documents to the centroids they
+	 * were assigned to in this iteration, leaving out documents
+	 * whose distance is undefined. The centroid terms and the
+	 * truncated terms are totals over all k centroids, whether
+	 * or not they changed in this iteration, and the centroid
+	 * terms are counted after truncation. The allocation is -1
+	 * if the JVM does not count it.
+	 */
+	public int getK() { return this.k; }
+	public boolean usesAngleDistance() { return this.useAngleDistance; }
+	public int getIteration() { return this.iteration; }
+	public long getAssignmentNanos() { return this.assignmentNanos; }
+	public long getUpdateNanos() { return this.updateNanos; }
+	public long getDistanceEvaluations() { return this.distanceEvaluations; }
+	public long getPrunedEvaluations() { return this.prunedEvaluations; }
+	public int getChangedDocuments() { return this.changedDocuments; }
+	public double getObjective() { return this.objective; }
+	public long getCentroidTerms() { return this.centroidTerms; }
+	public long getTruncatedTerms() { return this.truncatedTerms; }
+	public long getAllocatedBytes() { return this.allocatedBytes; }
+
+	/************************* *************************/
+
+	public String toString() {
+		return "k=" + k + ", " + (useAngleDistance ? "angle" : "jaccard") + ", iteration " + iteration + ": assignment "
+				+ assignmentNanos / 1000000 + " ms, update " + updateNanos / 1000000 + " ms, " + distanceEvaluations + " distances ("
+				+ prunedEvaluations + " pruned), " + changedDocuments + " changed, objective " + objective + ", " + centroidTerms + " centroid terms ("
+				+ truncatedTerms + " truncated)";
+	}
+}
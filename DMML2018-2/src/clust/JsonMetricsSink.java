@@ -0,0 +1,38 @@
+package clust;
+
+import java.io.IOException;
+
+/**
+ * Writes iteration metrics as JSON lines: one object per
+ * iteration and line. Undefined objectives are written as
+ * null, since JSON has no NaN.
+ *
+ */
+public class JsonMetricsSink extends MetricsSink {
+
+	/************************* *************************/
+
+	/**
+	 * Constructor
+	 */
+	public JsonMetricsSink(String filepath, boolean append) throws IOException {
+		super(filepath, append);
+	}
+
+	/************************* *************************/
+
+	protected String getHeader() {
+		return null;
+	}
+
+	protected String format(IterationMetrics metrics) {
+		double objective = metrics.getObjective();
+		return "{\"k\":" + metrics.getK() + ",\"metric\":\"" + (metrics.usesAngleDistance() ? "angle" : "jaccard") + "\",\"iteration\":"
+				+ metrics.getIteration() + ",\"assignment_ns\":" + metrics.getAssignmentNanos() + ",\"update_ns\":" + metrics.getUpdateNanos()
+				+ ",\"distance_evaluations\":" + metrics.getDistanceEvaluations() + ",\"pruned_evaluations\":" + metrics.getPrunedEvaluations()
+				+ ",\"changed_documents\":" + metrics.getChangedDocuments() + ",\"objective\":"
+				+ (Double.isNaN(objective) || Double.isInfinite(objective) ? "null" : String.valueOf(objective)) + ",\"centroid_terms\":"
+				+ metrics.getCentroidTerms() + ",\"truncated_terms\":" + metrics.getTruncatedTerms() + ",\"allocated_bytes\":"
+				+ metrics.getAllocatedBytes() + "}";
+	}
+}
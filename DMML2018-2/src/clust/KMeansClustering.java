@@ -1,18 +1,25 @@
 package clust;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
 
 import ds.Centroid;
-import ds.Wount;
+import ds.SparseCorpus;
+import util.AllocationCounter;
+import util.CorpusCache;
 import util.FileIo;
+import util.ResultWriter;
 
 @SuppressWarnings("unused")
 public class KMeansClustering {
@@ -26,21 +33,85 @@ public class KMeansClustering {
 	private static String NIPS_DATASET_OUTPUT_FILEPATH = "datasets/nips_output.txt";
 	private static String ENRON_DATASET_OUTPUT_FILEPATH = "datasets/enron_output.txt";
 	private static final double ACCEPTANCE_THRESHOLD = 0.8;
+	private static final int ASSIGNMENT_CHUNK_SIZE = 64;
+	private static final double PRUNING_TOLERANCE = 1e-6;
 	
 	private StringBuilder output = new StringBuilder();
+	private boolean verbose = true;
 
 	private int numberOfDocuments;
 	private int numberOfWords;
+	private int k;
+	private int iterations;
 
-	private Map<Integer, List<Wount>> data;
+	private SparseCorpus data;
 	private List<Centroid> kMeans;
-	private List<Integer> documentFrequencies;
 	private List<Integer> documentSizes;
 	private int[] previousMembership;
 	private int[] currentMembership;
 	private int[] currentAverageMembership;
 	private int[] previousAverageMembership;
 	private boolean useAngleDistance;
+	private double[] idf;
+	private double[] documentNorms;
+	private double[] centroidNorms;
+	private ForkJoinPool pool;
+	private CentroidUpdater centroidUpdater;
+	private Seeding seeding = new EvenlySpacedSeeding();
+	private long seed;
+	private int signatureLength;
+	private int bands;
+	private MinHash minHash;
+	private CentroidTruncation truncation;
+	private boolean chooseDenseCentroids = true;
+	private boolean useDenseCentroids;
+	private DenseCentroids denseCentroids;
+	private boolean useInvertedIndex = true;
+	private InvertedCentroids invertedCentroids;
+	private Precision precision = Precision.DOUBLE;
+	private CompactCentroids compactCentroids;
+	private long truncatedTerms;
+	private boolean useIncrementalUpdates = true;
+	private boolean[] updatedCentroids;
+	private int[] truncatedCentroidTerms;
+	private String checkpointPath;
+	private int checkpointInterval;
+	private boolean resume;
+
+	// Triangle-inequality pruning state for the angle distance.
+	private boolean usePruning;
+	private boolean boundsValid;
+	private double[] upperBounds;
+	private double[] lowerBounds;
+	private double[] centroidHalfGaps;
+	private double[] centroidShifts;
+	private double largestShift;
+	private double secondLargestShift;
+	private int largestShiftCentroidID;
+	private LongAdder distanceEvaluations = new LongAdder();
+	private LongAdder prunedEvaluations = new LongAdder();
+
+	// Convergence criteria, and the statistics of the last
+	// assignment that they are checked against. The statistics
+	// are collected per chunk of documents during assignment and
+	// added up in chunk order, so they do not depend on the
+	// parallelism.
+	private double acceptanceThreshold = ACCEPTANCE_THRESHOLD;
+	private double objectiveTolerance;
+	private double shiftTolerance;
+	private int[] chunkChanged;
+	private int[] chunkSame;
+	private double[] chunkObjective;
+	private int[] chunkSizes;
+	private int[] clusterSizes;
+	private int changedDocuments;
+	private int sameDocuments;
+	private double objective;
+	private double previousObjective;
+
+	// Metrics, only collected while there are listeners.
+	private List<IterationListener> listeners = new ArrayList<IterationListener>();
+	private double[] assignedDistances;
 
 	/************************* *************************/
 
@@ -49,49 +120,68 @@ public class KMeansClustering {
 	 * @throws IOException 
 	 */
 	public KMeansClustering(int k, boolean useAngleDistance) throws IOException {
+		this(k, useAngleDistance, 1);
+	}
+
+	/**
+	 * Constructor. The assignment step is split over the given
+	 * number of threads; 1 runs it on the calling thread.
+	 * @throws IOException 
+	 */
+	public KMeansClustering(int k, boolean useAngleDistance, int parallelism) throws IOException {
 		
 		this.useAngleDistance = useAngleDistance;
+		this.pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
 		
-		// Set individual filepaths.
-		if(System.getProperty("os.name").equals("Windows 10")) {
-			TOY_DATASET_FILEPATH = "C:\\Users\\Ankita Sarkar\\git\\DMML2018-2\\DMML2018-2\\datasets\\docword.toy.txt";
-			KOS_DATASET_FILEPATH = "C:\\Users\\Ankita Sarkar\\git\\DMML2018-2\\DMML2018-2\\datasets\\docword.kos.txt";
-			NIPS_DATASET_FILEPATH = "C:\\Users\\Ankita Sarkar\\git\\DMML2018-2\\DMML2018-2\\datasets\\docword.nips.txt";
-			ENRON_DATASET_FILEPATH = "C:\\Users\\Ankita Sarkar\\git\\DMML2018-2\\DMML2018-2\\datasets\\docword.enron.txt";
-			TOY_DATASET_OUTPUT_FILEPATH = "C:\\Users\\Ankita Sarkar\\git\\DMML2018-2\\DMML2018-2\\datasets\\output.txt";
-			KOS_DATASET_OUTPUT_FILEPATH = "C:\\Users\\Ankita Sarkar\\git\\DMML2018-2\\DMML2018-2\\datasets\\output.txt";
-			NIPS_DATASET_OUTPUT_FILEPATH = "C:\\Users\\Ankita Sarkar\\git\\DMML2018-2\\DMML2018-2\\datasets\\output.txt";
-			ENRON_DATASET_OUTPUT_FILEPATH = "C:\\Users\\Ankita Sarkar\\git\\DMML2018-2\\DMML2018-2\\datasets\\output.txt";
-		} else if(System.getProperty("os.name").equals("Mac OS X")) {
-			
-		} else {
-			// Change filepaths to required format.
-			TOY_DATASET_FILEPATH = "";
-			KOS_DATASET_FILEPATH = "";
-			NIPS_DATASET_FILEPATH = "";
-			ENRON_DATASET_FILEPATH = "";
-			TOY_DATASET_OUTPUT_FILEPATH = "";
-			KOS_DATASET_OUTPUT_FILEPATH = "";
-			NIPS_DATASET_OUTPUT_FILEPATH = "";
-			ENRON_DATASET_OUTPUT_FILEPATH = "";
-		}
-		
-		this.data = new HashMap<Integer, List<Wount>>();
-		this.kMeans = new ArrayList<Centroid>();
-		this.documentFrequencies = new ArrayList<Integer>();
-		this.documentSizes = new ArrayList<Integer>();
+		setFilepaths();
 
 		/**
 		 * Use the documents filepath to read the file and store it
-		 * for quick access. Also store metadata. The format of the
-		 * metadata data is as follows. It is a list of three integers,
-		 * (#documents, #words, #nonzero entries)
+		 * for quick access.
 		 */
-		List<Integer> metadata = readData(KOS_DATASET_FILEPATH);
-		this.numberOfDocuments = metadata.get(0);
-		this.numberOfWords = metadata.get(1);
+		this.data = readData(KOS_DATASET_FILEPATH, pool);
 		//		System.out.println(data);
 
+		setUp(k);
+		run();
+
+		if(pool != null) {
+			pool.shutdown();
+		}
+
+		writeResults(KOS_DATASET_OUTPUT_FILEPATH, false);
+	}
+
+	/**
+	 * Constructor. Sets up a clustering of an already loaded
+	 * corpus without running it, so that one corpus can be
+	 * shared by many runs. The pool may be null.
+	 */
+	public KMeansClustering(SparseCorpus data, int k, boolean useAngleDistance, ForkJoinPool pool) {
+		this.useAngleDistance = useAngleDistance;
+		this.pool = pool;
+		this.data = data;
+		setUp(k);
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Initialise the fields that depend on the
+	 * corpus and on k.
+	 */
+	private void setUp(int k) {
+		this.k = k;
+		this.numberOfDocuments = data.getNumberOfDocuments();
+		this.numberOfWords = data.getNumberOfWords();
+		this.kMeans = new ArrayList<Centroid>();
+		this.documentSizes = new ArrayList<Integer>();
+
+		// The tf-idf weights depend only on the corpus, which computes them once.
+		this.idf = data.getIdf();
+		this.documentNorms = data.getDocumentNorms();
+		this.centroidUpdater = new CentroidUpdater(data, pool);
+
 		// Initialise other fields based on data.
 		this.previousMembership = new int[numberOfDocuments];
 		this.currentMembership = new int[numberOfDocuments];
@@ -105,10 +195,27 @@ public class KMeansClustering {
 		}
 
 		// testing code
-		//		System.out.println("Document frequencies:\n"+this.documentFrequencies);
+		//		System.out.println("Document frequencies:\n"+Arrays.toString(data.getDocumentFrequencies()));
+	}
 
-		// Initialise the k different means.
-		initialiseKMeans(k);
+	/************************* *************************/
+
+	/**
+	 * @description Run k-means clustering up to convergence and
+	 * list the clusters in the output.
+	 */
+	public void run() {
+		// Initialise the k different means, or pick up where an
+		// earlier run left off.
+		if (resume && checkpointPath != null && new File(checkpointPath).isFile()) {
+			try {
+				resume(checkpointPath);
+			} catch (IOException e) {
+				throw(new RuntimeException("Could not resume from checkpoint " + checkpointPath + ": " + e.getMessage() + "!"));
+			}
+		} else {
+			initialise();
+		}
 
 		// Run K-means clustering finitely many iterations. Use for testing only!
 		//		int maxIterations = 2;
@@ -119,16 +226,346 @@ public class KMeansClustering {
 		//		}
 
 		//		// Run K-means clustering up to convergence.
-		int iterationCounter = 1;
 		while (!this.hasConverged()) {
-			System.out.print("*** Iteration "+ iterationCounter + " *** - ");
-			output.append("*** Iteration "+ iterationCounter + " *** - ");
-			cluster(iterationCounter++);
-			recomputeCentroids();
+			iterate();
+			if (checkpointPath != null && checkpointInterval > 0 && iterations % checkpointInterval == 0) {
+				try {
+					writeCheckpoint(checkpointPath);
+				} catch (IOException e) {
+					// A missed checkpoint only costs time if the run dies.
+					System.err.println("Could not write checkpoint " + checkpointPath + ": " + e.getMessage());
+				}
+			}
 		}
 
 		displayClusters(false);
-		FileIo.writeToFile(output.toString(), KOS_DATASET_OUTPUT_FILEPATH, false);
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Choose the initial centroids. Together with
+	 * iterate, this lets callers such as benchmarks drive the
+	 * loop themselves.
+	 */
+	public void initialise() {
+		prepareRun();
+		initialiseKMeans(k);
+	}
+
+	/**
+	 * @description Restore the state of a checkpoint instead of
+	 * choosing initial centroids, so that iterate continues
+	 * exactly as the run that wrote it would have. Pruning
+	 * bounds are not saved; the first iteration after resuming
+	 * recomputes them, which gives the same assignments.
+	 */
+	public void resume(String filepath) throws IOException {
+		Checkpoint checkpoint = Checkpoint.read(filepath);
+		if (checkpoint.getNumberOfDocuments() != numberOfDocuments || checkpoint.getNumberOfWords() != numberOfWords
+				|| checkpoint.getK() != k || checkpoint.usesAngleDistance() != useAngleDistance || checkpoint.getSeed() != seed) {
+			throw new IOException("Checkpoint " + filepath + " belongs to a different corpus or configuration");
+		}
+		prepareRun();
+		this.iterations = checkpoint.getIterations();
+		this.sameDocuments = checkpoint.getSameDocuments();
+		this.objective = checkpoint.getObjective();
+		this.previousObjective = checkpoint.getPreviousObjective();
+		this.largestShift = checkpoint.getLargestShift();
+		System.arraycopy(checkpoint.getCurrentMembership(), 0, currentMembership, 0, numberOfDocuments);
+		System.arraycopy(checkpoint.getPreviousMembership(), 0, previousMembership, 0, numberOfDocuments);
+		System.arraycopy(checkpoint.getCurrentAverageMembership(), 0, currentAverageMembership, 0, numberOfDocuments);
+		System.arraycopy(checkpoint.getPreviousAverageMembership(), 0, previousAverageMembership, 0, numberOfDocuments);
+		for (int i = 0; i < numberOfDocuments; ++i) {
+			if (currentMembership[i] > 0) {
+				clusterSizes[currentMembership[i] - 1]++;
+			}
+		}
+		kMeans.clear();
+		kMeans.addAll(checkpoint.getCentroids());
+		computeCentroidNorms();
+		if (minHash != null) {
+			minHash.setCentroids(kMeans);
+		}
+		if (denseCentroids != null) {
+			denseCentroids.setCentroids(kMeans, centroidNorms);
+		}
+		if (invertedCentroids != null) {
+			invertedCentroids.setCentroids(kMeans, centroidNorms);
+		}
+		if (compactCentroids != null) {
+			compactCentroids.setCentroids(kMeans, centroidNorms);
+		}
+		this.boundsValid = false;
+		println("Resumed from checkpoint " + filepath + " after iteration " + iterations + ".");
+		output.append("Resumed from checkpoint " + filepath + " after iteration " + iterations + ".\n");
+	}
+
+	/**
+	 * @description Write the current state of the run to a
+	 * checkpoint file (see Checkpoint).
+	 */
+	public void writeCheckpoint(String filepath) throws IOException {
+		new Checkpoint(numberOfDocuments, numberOfWords, k, useAngleDistance, seed, iterations, sameDocuments, objective, previousObjective,
+				largestShift, currentMembership, previousMembership, currentAverageMembership, previousAverageMembership, kMeans).write(filepath);
+	}
+
+	/**
+	 * @description Allocate the per-run state and the distance
+	 * structures that do not depend on the centroids.
+	 */
+	private void prepareRun() {
+		this.iterations = 0;
+		int numberOfChunks = (numberOfDocuments + ASSIGNMENT_CHUNK_SIZE - 1) / ASSIGNMENT_CHUNK_SIZE;
+		this.chunkChanged = new int[numberOfChunks];
+		this.chunkSame = new int[numberOfChunks];
+		this.chunkObjective = new double[numberOfChunks];
+		this.chunkSizes = new int[numberOfChunks * k];
+		this.clusterSizes = new int[k];
+		this.updatedCentroids = new boolean[k];
+		this.truncatedCentroidTerms = new int[k];
+		centroidUpdater.reset();
+		if (!useAngleDistance && signatureLength > 0) {
+			this.minHash = new MinHash(data, signatureLength, bands, seed, pool);
+		}
+		if (chooseDenseCentroids) {
+			this.useDenseCentroids = DenseCentroids.fits(numberOfWords, k);
+		}
+		if (useAngleDistance && precision != Precision.DOUBLE) {
+			// Nothing reads the double counts any more, so keep only
+			// the compact ones.
+			this.data = data.compactCounts();
+			this.centroidUpdater = new CentroidUpdater(data, pool);
+		} else if (useAngleDistance && data.getCounts() == null) {
+			throw(new RuntimeException("Double precision needs a corpus with double counts!"));
+		}
+		this.compactCentroids = useAngleDistance && precision != Precision.DOUBLE ? new CompactCentroids(data, k, precision) : null;
+		this.denseCentroids = useDenseCentroids && minHash == null && compactCentroids == null ? new DenseCentroids(data, k, useAngleDistance) : null;
+		this.invertedCentroids = useInvertedIndex && denseCentroids == null && minHash == null && compactCentroids == null
+				? new InvertedCentroids(data, k, useAngleDistance) : null;
+	}
+
+	/**
+	 * @description One iteration: assign every document to its
+	 * closest centroid, then move the centroids to the means.
+	 */
+	public void iterate() {
+		int iteration = ++this.iterations;
+		print("*** Iteration "+ iteration + " *** - ");
+		output.append("*** Iteration "+ iteration + " *** - ");
+		if (listeners.isEmpty()) {
+			cluster(iteration);
+			recomputeCentroids();
+			return;
+		}
+
+		// Without a pool all the work happens on this thread, so
+		// other runs of a batch do not count towards allocation.
+		long allocatedBefore = AllocationCounter.allocatedBytes(pool != null);
+		long evaluationsBefore = distanceEvaluations.sum();
+		long prunedBefore = prunedEvaluations.sum();
+		long start = System.nanoTime();
+		cluster(iteration);
+		long assigned = System.nanoTime();
+		recomputeCentroids();
+		long updated = System.nanoTime();
+		long allocatedAfter = AllocationCounter.allocatedBytes(pool != null);
+		IterationMetrics metrics = new IterationMetrics(k, useAngleDistance, iteration, assigned - start, updated - assigned,
+				distanceEvaluations.sum() - evaluationsBefore, prunedEvaluations.sum() - prunedBefore, changedDocuments, objective,
+				countCentroidTerms(), truncatedTerms, allocatedBefore < 0 || allocatedAfter < 0 ? -1 : allocatedAfter - allocatedBefore);
+		for (int i = 0; i < listeners.size(); ++i) {
+			listeners.get(i).iterationCompleted(metrics);
+		}
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Write the output of the run followed by the
+	 * clusters to a file.
+	 */
+	public void writeResults(String filepath, boolean append) throws IOException {
+		FileIo.writeToFile(output.toString(), filepath, append);
+		ResultWriter.writeText(currentMembership, kMeans.size(), filepath, true);
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Getter functions. The membership array holds
+	 * the centroid ID (from 1) of each document, by ID - 1. The
+	 * objective is only kept, and otherwise NaN, with a listener
+	 * or the objective criterion of convergence.
+	 */
+	public int getK() { return this.k; }
+	public boolean usesAngleDistance() { return this.useAngleDistance; }
+	public int getIterations() { return this.iterations; }
+	public int[] getMembership() { return this.currentMembership.clone(); }
+	public List<Centroid> getCentroids() { return this.kMeans; }
+	public String getOutput() { return this.output.toString(); }
+	public long getDistanceEvaluations() { return this.distanceEvaluations.sum(); }
+	public long getPrunedEvaluations() { return this.prunedEvaluations.sum(); }
+	public int[] getClusterSizes() { return this.clusterSizes.clone(); }
+	public double getObjective() { return this.objective; }
+
+	/**
+	 * @description Setter functions. A quiet run still collects
+	 * its output, but prints nothing to the console.
+	 */
+	public void setVerbose(boolean verbose) { this.verbose = verbose; }
+	public void setSeeding(Seeding seeding) { this.seeding = seeding; }
+	public void setSeed(long seed) { this.seed = seed; }
+
+	/**
+	 * @description Estimate Jaccard distances from MinHash
+	 * signatures of the given length, optionally with banding
+	 * (see MinHash). A length of 0 restores exact distances.
+	 */
+	public void setMinHash(int signatureLength, int bands) {
+		this.signatureLength = signatureLength;
+		this.bands = bands;
+	}
+
+	/**
+	 * @description Skip distance evaluations with Hamerly bounds
+	 * (angle distance in double precision only). It pays off
+	 * with sparse or inverted centroids and a large k, where each
+	 * skipped centroid saves a sparse merge. Dense centroids,
+	 * the default when they fit, make every evaluation cheap, so
+	 * there the bounds cost more than they save: on KOS they
+	 * skipped under 2% of the evaluations and the runs were
+	 * slower at k = 3 and k = 10. Off by default.
+	 */
+	public void setPruning(boolean usePruning) { this.usePruning = usePruning; }
+
+	/**
+	 * @description Truncate the centroids after every update,
+	 * or keep them whole if the truncation is null.
+	 */
+	public void setTruncation(CentroidTruncation truncation) { this.truncation = truncation; }
+
+	/**
+	 * @description Update the centroids from the documents that
+	 * changed cluster only (the default), or re-sum all
+	 * documents in every iteration. Both give the same centroids.
+	 */
+	public void setIncrementalUpdates(boolean useIncrementalUpdates) { this.useIncrementalUpdates = useIncrementalUpdates; }
+
+	/**
+	 * @description Make run write a checkpoint to the given file
+	 * every interval iterations; an interval of 0 disables it.
+	 * With resume set, run continues from that file instead of
+	 * starting over if it exists.
+	 */
+	public void setCheckpoint(String filepath, int interval) {
+		this.checkpointPath = filepath;
+		this.checkpointInterval = interval;
+	}
+	public void setResume(boolean resume) { this.resume = resume; }
+
+	/**
+	 * @description Set when the clustering has converged: when
+	 * at least the acceptance threshold (as a fraction) of the
+	 * documents kept their cluster, when the objective improved
+	 * by less than the objective tolerance relative to the last
+	 * iteration, or when no centroid moved by more than the
+	 * shift tolerance. A tolerance of 0 disables that criterion,
+	 * and a threshold above 1 disables the first. Checking the
+	 * objective costs up to one extra distance per document when
+	 * pruning.
+	 */
+	public void setConvergence(double acceptanceThreshold, double objectiveTolerance, double shiftTolerance) {
+		this.acceptanceThreshold = acceptanceThreshold;
+		this.objectiveTolerance = objectiveTolerance;
+		this.shiftTolerance = shiftTolerance;
+	}
+
+	/**
+	 * @description Force dense centroids on or off. By default
+	 * they are used if they fit in cache (see DenseCentroids).
+	 * Either way the distances are the same.
+	 */
+	public void setDenseCentroids(boolean useDenseCentroids) {
+		this.chooseDenseCentroids = false;
+		this.useDenseCentroids = useDenseCentroids;
+	}
+
+	/**
+	 * @description Use an inverted index of the centroids (see
+	 * InvertedCentroids) to score each document against all of
+	 * them at once when the centroids are not dense. On by
+	 * default; the distances are the same either way.
+	 */
+	public void setInvertedIndex(boolean useInvertedIndex) { this.useInvertedIndex = useInvertedIndex; }
+
+	/**
+	 * @description Score documents against the centroids in
+	 * reduced precision, Precision.FLOAT or QUANTISED, instead
+	 * of the default Precision.DOUBLE. Applies to the angle
+	 * distance only, and turns pruning off, since its bounds
+	 * assume exact distances. The centroids are still computed
+	 * in double precision, but from the compact counts of the
+	 * corpus (see SparseCorpus.compactCounts), which replace its
+	 * double counts here; the caller should drop its own
+	 * reference to the corpus, or pass a compact one, for the
+	 * double counts to be freed.
+	 */
+	public void setPrecision(Precision precision) { this.precision = precision; }
+
+	/**
+	 * @description Report the metrics of every iteration to the
+	 * listener. As with the objective criterion of convergence,
+	 * this costs up to one extra distance per document when
+	 * pruning.
+	 */
+	public void addIterationListener(IterationListener listener) { this.listeners.add(listener); }
+
+	/************************* *************************/
+
+	/**
+	 * @description Console helpers, silenced unless verbose.
+	 */
+	private void print(String s) {
+		if (verbose) {
+			System.out.print(s);
+		}
+	}
+
+	private void println(String s) {
+		if (verbose) {
+			System.out.println(s);
+		}
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Set the dataset filepaths for the machine
+	 * we are running on.
+	 */
+	private static void setFilepaths() {
+		if(System.getProperty("os.name").equals("Windows 10")) {
+			TOY_DATASET_FILEPATH = "C:\\Users\\Ankita Sarkar\\git\\DMML2018-2\\DMML2018-2\\datasets\\docword.toy.txt";
+			KOS_DATASET_FILEPATH = "C:\\Users\\Ankita Sarkar\\git\\DMML2018-2\\DMML2018-2\\datasets\\docword.kos.txt";
+			NIPS_DATASET_FILEPATH = "C:\\Users\\Ankita Sarkar\\git\\DMML2018-2\\DMML2018-2\\datasets\\docword.nips.txt";
+			ENRON_DATASET_FILEPATH = "C:\\Users\\Ankita Sarkar\\git\\DMML2018-2\\DMML2018-2\\datasets\\docword.enron.txt";
+			TOY_DATASET_OUTPUT_FILEPATH = "C:\\Users\\Ankita Sarkar\\git\\DMML2018-2\\DMML2018-2\\datasets\\output.txt";
+			KOS_DATASET_OUTPUT_FILEPATH = "C:\\Users\\Ankita Sarkar\\git\\DMML2018-2\\DMML2018-2\\datasets\\output.txt";
+			NIPS_DATASET_OUTPUT_FILEPATH = "C:\\Users\\Ankita Sarkar\\git\\DMML2018-2\\DMML2018-2\\datasets\\output.txt";
+			ENRON_DATASET_OUTPUT_FILEPATH = "C:\\Users\\Ankita Sarkar\\git\\DMML2018-2\\DMML2018-2\\datasets\\output.txt";
+		} else if(System.getProperty("os.name").equals("Mac OS X")) {
+			
+		} else {
+			// Change filepaths to required format.
+			TOY_DATASET_FILEPATH = "";
+			KOS_DATASET_FILEPATH = "";
+			NIPS_DATASET_FILEPATH = "";
+			ENRON_DATASET_FILEPATH = "";
+			TOY_DATASET_OUTPUT_FILEPATH = "";
+			KOS_DATASET_OUTPUT_FILEPATH = "";
+			NIPS_DATASET_OUTPUT_FILEPATH = "";
+			ENRON_DATASET_OUTPUT_FILEPATH = "";
+		}
 	}
 
 	/************************* *************************/
@@ -145,37 +582,10 @@ public class KMeansClustering {
 	 * 2) next NNZ lines are :
 	 * * docID wordID count
 	 * * where count=number of occurrences word wordID in document docID
+	 * The parsed corpus is cached in binary next to the file.
 	 */
-	private List<Integer> readData(String filepath) throws IOException {
-		List<Integer> ans = new ArrayList<Integer>();
-		int currDocId = 0;
-		int currWordId = 0;
-		BufferedReader br = new BufferedReader(new FileReader(filepath));
-		String currentLine = "";
-		while((currentLine = br.readLine()) != null) {
-			String[] tmpArray = currentLine.split(" ");
-			if(tmpArray.length == 3) { // Ignore the first three metadata lines.
-				if(Integer.parseInt(tmpArray[0]) != currDocId) { // New documents entries.
-					data.put(Integer.parseInt(tmpArray[0]), new ArrayList<Wount>());
-					currDocId = Integer.parseInt(tmpArray[0]);
-				}
-				currWordId = Integer.parseInt(tmpArray[1]);
-				data.get(currDocId).add(new Wount(currWordId, Double.parseDouble(tmpArray[2])));
-				documentFrequencies.set(currWordId-1, documentFrequencies.get(currWordId-1)+1);
-			} else { // Return metadata to store separately.
-				ans.add(Integer.parseInt(tmpArray[0]));
-				try {
-					for (int i = 0; i < ans.get(1); ++i) {
-						documentFrequencies.add(0);
-					}
-				} catch (IndexOutOfBoundsException e) {
-					// pass
-				}
-
-			}
-		}
-		br.close();
-		return ans;
+	public static SparseCorpus readData(String filepath, ForkJoinPool pool) throws IOException {
+		return CorpusCache.load(filepath, pool);
 	}
 
 	/************************* *************************/
@@ -187,17 +597,30 @@ public class KMeansClustering {
 	 * equally by document ID.
 	 */
 	private void initialiseKMeans(int k) {
-		System.out.print("Initializing "+ k +" means...");
+		print("Initializing "+ k +" means...");
 		output.append("Initializing "+ k +" means...");
 		
-		int d = numberOfDocuments / k;
+		int[] seeds = seeding.chooseSeeds(data, k, useAngleDistance, seed, pool);
 		for(int i=1;i<=k;++i) {
-			kMeans.add(new Centroid(i, data.get(d*i)));
+			kMeans.add(new Centroid(i, data.getDocument(seeds[i-1])));
 		}
-		System.out.println(" done.");
+		println(" done.");
 		output.append(" done.\n");
-		System.out.println("-----------------------------");
+		println("-----------------------------");
 		output.append("-----------------------------\n");
+		computeCentroidNorms();
+		if (minHash != null) {
+			minHash.setCentroids(kMeans);
+		}
+		if (denseCentroids != null) {
+			denseCentroids.setCentroids(kMeans, centroidNorms);
+		}
+		if (invertedCentroids != null) {
+			invertedCentroids.setCentroids(kMeans, centroidNorms);
+		}
+		if (compactCentroids != null) {
+			compactCentroids.setCentroids(kMeans, centroidNorms);
+		}
 		//		for(int i=0;i<kMeans.size();++i) {
 		//			System.out.println(kMeans.get(i));
 		//		}
@@ -213,41 +636,31 @@ public class KMeansClustering {
 	private void cluster(int iteration) {
 //		System.out.print("Clustering data... ");
 //		output.append("Clustering data... ");
-		double minDistance = Integer.MAX_VALUE;
-		double currentDistance = 0;
-		int closestCentroidID = -1;
 		int k = kMeans.size();
-		for (int currentDocumentID = 1; currentDocumentID <= numberOfDocuments; ++currentDocumentID) {
-			minDistance = Integer.MAX_VALUE;
-			for (int currentCentroidID = 1; currentCentroidID <= k; ++currentCentroidID) {
-				currentDistance = useAngleDistance ? getAngleDistance(currentDocumentID, currentCentroidID) : getJaccardDistance(currentDocumentID, currentCentroidID);
-				if (minDistance > currentDistance) {
-					closestCentroidID = currentCentroidID;
-					minDistance = currentDistance;
-				}
-			}
-			if (!useAngleDistance) {
-				previousAverageMembership[currentDocumentID - 1] = currentAverageMembership[currentDocumentID - 1];
-				currentAverageMembership[currentDocumentID
-						- 1] = (previousAverageMembership[currentDocumentID - 1] * (iteration - 1) + closestCentroidID)
-								/ iteration;
+		if (isPruning()) {
+			computeCentroidHalfGaps();
+		}
+		if (listeners.isEmpty() && objectiveTolerance <= 0) {
+			this.assignedDistances = null;
+		} else if (assignedDistances == null) {
+			this.assignedDistances = new double[numberOfDocuments];
+		}
+		Arrays.fill(chunkSizes, 0);
+		if (pool != null) {
+			pool.invoke(new AssignmentTask(0, chunkChanged.length, iteration));
+		} else {
+			for (int chunk = 0; chunk < chunkChanged.length; ++chunk) {
+				assignChunk(chunk, iteration);
 			}
-			previousMembership[currentDocumentID-1] = currentMembership[currentDocumentID-1];
-			currentMembership[currentDocumentID-1] = closestCentroidID;
 		}
+		this.boundsValid = isPruning();
+		addUpChunks();
 		
 		// Get cluster counts
-		int[] sizes = new int[k];
 		for(int i=0;i<k;++i) {
-			sizes[i] = 0;
-		}
-		for(int i=0;i<numberOfDocuments;++i) {
-			sizes[currentMembership[i]-1]++;
+			print(clusterSizes[i] + ", ");
 		}
-		for(int i=0;i<k;++i) {
-			System.out.print(sizes[i] + ", ");
-		}
-		System.out.println();
+		println("");
 		
 //		System.out.println("done!");
 //		output.append("done!\n");
@@ -260,236 +673,512 @@ public class KMeansClustering {
 	/************************* *************************/
 
 	/**
-	 * @description Recompute centroids by taking average
-	 * of formed clusters.
+	 * @description Assign the documents of one chunk, and count
+	 * how many changed or kept their cluster, the cluster sizes
+	 * and the objective within the chunk while they are at hand.
+	 * The distances to all centroids are scored into one scratch
+	 * row per chunk.
 	 */
-	private void recomputeCentroids() {
-//		System.out.print("Recomputing centroids... ");
-//		output.append("Recomputing centroids... ");
-		int k = kMeans.size();
-		Wount currentWount = new Wount(-1,-1);
-		int[] clusterSizes = new int[k];
-		int currentCentroidID = -1;
-
-		// Reset the coordinates for each centroid
-		for (int i = 0; i < k; ++i) {
-			kMeans.get(i).setCoordinates(new ArrayList<Wount>());
+	private void assignChunk(int chunk, int iteration) {
+		int from = chunk * ASSIGNMENT_CHUNK_SIZE + 1;
+		int to = Math.min(from + ASSIGNMENT_CHUNK_SIZE, numberOfDocuments + 1);
+		int sizesOffset = chunk * k;
+		double[] distances = denseCentroids != null || invertedCentroids != null || compactCentroids != null ? new double[k] : null;
+		int changed = 0;
+		int same = 0;
+		double chunkSum = 0;
+		for (int currentDocumentID = from; currentDocumentID < to; ++currentDocumentID) {
+			assignDocument(currentDocumentID, iteration, distances);
+			int d = currentDocumentID - 1;
+			if (previousMembership[d] != currentMembership[d]) {
+				changed++;
+			}
+			if (previousMembership[d] == currentMembership[d]
+					|| (!useAngleDistance && previousAverageMembership[d] == currentAverageMembership[d])) {
+				same++;
+			}
+			chunkSizes[sizesOffset + currentMembership[d] - 1]++;
+			if (assignedDistances != null) {
+				double distance = assignedDistances[d];
+				if (distance == distance) {
+					chunkSum += distance*distance;
+				}
+			}
 		}
+		chunkChanged[chunk] = changed;
+		chunkSame[chunk] = same;
+		chunkObjective[chunk] = chunkSum;
+	}
 
-		// Iterate over membership array and sum up coordinates per cluster. Also keep size.
-		for (int currentDocumentID = 1; currentDocumentID <= numberOfDocuments; ++currentDocumentID) {
-			currentCentroidID = currentMembership[currentDocumentID-1];
-			clusterSizes[currentCentroidID-1]++;
-			kMeans.get(currentCentroidID-1).setCoordinates(addCoordinates(kMeans.get(currentCentroidID-1).getCoordinates(),data.get(currentDocumentID)));
+	/**
+	 * @description Add up the statistics of all chunks, in
+	 * chunk order.
+	 */
+	private void addUpChunks() {
+		this.previousObjective = objective;
+		this.changedDocuments = 0;
+		this.sameDocuments = 0;
+		this.objective = assignedDistances != null ? 0 : Double.NaN;
+		Arrays.fill(clusterSizes, 0);
+		for (int chunk = 0; chunk < chunkChanged.length; ++chunk) {
+			changedDocuments += chunkChanged[chunk];
+			sameDocuments += chunkSame[chunk];
+			if (assignedDistances != null) {
+				objective += chunkObjective[chunk];
+			}
+			for (int c = 0; c < k; ++c) {
+				clusterSizes[c] += chunkSizes[chunk * k + c];
+			}
 		}
+	}
 
-		// Normalise each centroid.
-		for (int i = 0; i < k; ++i) {
-			kMeans.get(i).divideCoordinates((double)clusterSizes[i]);
+	/************************* *************************/
+
+	/**
+	 * @description Move a single document to its closest
+	 * centroid. Only the document's own membership entries
+	 * are written, so documents can be assigned concurrently.
+	 * Ties go to the lowest centroid ID. The distances row is
+	 * scratch space for the kernels that score all centroids at
+	 * once, and null if there is none.
+	 */
+	private void assignDocument(int currentDocumentID, int iteration, double[] distances) {
+		int closestCentroidID;
+		if (isPruning()) {
+			closestCentroidID = findClosestCentroidPruned(currentDocumentID, distances);
+		} else if (minHash != null) {
+			closestCentroidID = findClosestCentroidMinHash(currentDocumentID);
+		} else {
+			closestCentroidID = findClosestCentroid(currentDocumentID, distances);
 		}
-//		System.out.println("done!");
-//		output.append("done!\n\n");
-//		System.out.println();
-		//		System.out.println(kMeans);
+		if (!useAngleDistance) {
+			previousAverageMembership[currentDocumentID - 1] = currentAverageMembership[currentDocumentID - 1];
+			currentAverageMembership[currentDocumentID
+					- 1] = (previousAverageMembership[currentDocumentID - 1] * (iteration - 1) + closestCentroidID)
+							/ iteration;
+		}
+		previousMembership[currentDocumentID-1] = currentMembership[currentDocumentID-1];
+		currentMembership[currentDocumentID-1] = closestCentroidID;
 	}
 
 	/************************* *************************/
 
 	/**
-	 * @description Check whether the clustering method has
-	 * converged to its final point. Uses a threshold defined
-	 * as a constant.
+	 * @description Find the closest centroid to a document by
+	 * computing the distance to every centroid.
 	 */
-	private boolean hasConverged() {
-		//		System.out.println("Checking for convergence with threshold "+ACCEPTANCE_THRESHOLD);
-		int sameCount = 0;
-		for (int i=0;i<kMeans.size();++i) {
-			//			System.out.println(kMeans.get(i));
+	private int findClosestCentroid(int currentDocumentID, double[] distances) {
+		double minDistance = Integer.MAX_VALUE;
+		double currentDistance = 0;
+		int closestCentroidID = 1;
+		int k = kMeans.size();
+		if (denseCentroids != null) {
+			denseCentroids.distances(currentDocumentID, distances);
+		} else if (invertedCentroids != null) {
+			invertedCentroids.distances(currentDocumentID, distances);
+		} else if (compactCentroids != null) {
+			compactCentroids.distances(currentDocumentID, distances);
 		}
-		for(int i=0;i<numberOfDocuments;++i) {
-			if (previousMembership[i] == currentMembership[i]) {
-				sameCount++;
+		for (int currentCentroidID = 1; currentCentroidID <= k; ++currentCentroidID) {
+			if (distances != null) {
+				currentDistance = distances[currentCentroidID - 1];
+			} else {
+				currentDistance = useAngleDistance ? getAngleDistance(currentDocumentID, currentCentroidID) : getJaccardDistance(currentDocumentID, currentCentroidID);
 			}
-			else if (!useAngleDistance && (previousAverageMembership[i] == currentAverageMembership[i])) {
-				sameCount++;
+			if (minDistance > currentDistance) {
+				closestCentroidID = currentCentroidID;
+				minDistance = currentDistance;
 			}
 		}
-		return (sameCount >= ACCEPTANCE_THRESHOLD * numberOfDocuments);
+		distanceEvaluations.add(k);
+		if (assignedDistances != null) {
+			// Undefined distances never become the minimum.
+			assignedDistances[currentDocumentID - 1] = minDistance < Integer.MAX_VALUE ? minDistance : Double.NaN;
+		}
+		return closestCentroidID;
 	}
 
 	/************************* *************************/
 
 	/**
-	 * @description Find the angle between two documents in
-	 * the vector model using tf-idf weights for words.
+	 * @description Find the closest centroid to a document by
+	 * estimated Jaccard distance, among the candidates of the
+	 * MinHash band index.
 	 */
-	private double getAngleDistance(int documentId, int centroidId) {
-		double dotProduct = 0;
-		double documentNorm = 0;
-		double centroidNorm = 0;
-		double tempIDF = 0;
-		int documentCounter = 0;
-		int centroidCounter = 0;
-		int documentSize = data.get(documentId).size();
-		int centroidSize = kMeans.get(centroidId-1).getCoordinatesSize();
-		int currentCentroidWord = 0;
-		int currentDocumentWord = 0;
-		while(true) {
-			if(documentCounter >= documentSize) {
-				if(centroidCounter >= centroidSize) {
-					break;
-				} else {
-					currentCentroidWord = kMeans.get(centroidId-1).getCoordinates().get(centroidCounter).getId();
-					tempIDF = Math.log(this.numberOfDocuments) - Math.log(documentFrequencies.get(currentCentroidWord-1));
-					centroidNorm += Math.pow(kMeans.get(centroidId-1).getCoordinates().get(centroidCounter++).getCount()*tempIDF, 2);
-				}
-			} else {
-				if(centroidCounter >= centroidSize) {
-					currentDocumentWord = data.get(documentId).get(documentCounter).getId();
-					tempIDF = Math.log(this.numberOfDocuments) - Math.log(documentFrequencies.get(currentDocumentWord-1));
-					documentNorm += Math.pow(data.get(documentId).get(documentCounter++).getCount()*tempIDF,2);
-				} else {
-					currentCentroidWord = kMeans.get(centroidId-1).getCoordinates().get(centroidCounter).getId();
-					currentDocumentWord = data.get(documentId).get(documentCounter).getId();
-					if(currentDocumentWord < currentCentroidWord) {
-						tempIDF = Math.log(this.numberOfDocuments) - Math.log(documentFrequencies.get(currentDocumentWord-1));
-						documentNorm += Math.pow(data.get(documentId).get(documentCounter++).getCount()*tempIDF,2);
-					} else if(currentDocumentWord > currentCentroidWord) {
-						tempIDF = Math.log(this.numberOfDocuments) - Math.log(documentFrequencies.get(currentCentroidWord-1));
-						centroidNorm += Math.pow(kMeans.get(centroidId-1).getCoordinates().get(centroidCounter++).getCount()*tempIDF, 2);
-					} else { // if(currentDocumentWord == currentCentroidWord) {
-						tempIDF = Math.log(this.numberOfDocuments) - Math.log(documentFrequencies.get(currentCentroidWord-1));
-						// equivalently, tempIDF = Math.log(this.numberOfDocuments) - Math.log(documentFrequencies.get(currentDocumentWord))
-						dotProduct += data.get(documentId).get(documentCounter).getCount()*kMeans.get(centroidId-1).getCoordinates().get(centroidCounter).getCount()*Math.pow(tempIDF,2);
-						documentNorm += Math.pow(data.get(documentId).get(documentCounter++).getCount()*tempIDF,2);
-						centroidNorm += Math.pow(kMeans.get(centroidId-1).getCoordinates().get(centroidCounter++).getCount()*tempIDF, 2);
-					}
-				}
+	private int findClosestCentroidMinHash(int currentDocumentID) {
+		int k = kMeans.size();
+		boolean[] candidates = new boolean[k];
+		int count = minHash.getCandidates(currentDocumentID, candidates);
+		double minDistance = Integer.MAX_VALUE;
+		double currentDistance = 0;
+		int closestCentroidID = 1;
+		for (int currentCentroidID = 1; currentCentroidID <= k; ++currentCentroidID) {
+			if (!candidates[currentCentroidID - 1]) {
+				continue;
 			}
+			currentDistance = minHash.distance(currentDocumentID, currentCentroidID - 1);
+			if (minDistance > currentDistance) {
+				closestCentroidID = currentCentroidID;
+				minDistance = currentDistance;
+			}
+		}
+		distanceEvaluations.add(count);
+		prunedEvaluations.add(k - count);
+		if (assignedDistances != null) {
+			assignedDistances[currentDocumentID - 1] = minDistance;
 		}
-		//		System.out.print(dotProduct+" "+Math.sqrt(documentNorm*centroidNorm)+" ");
-		return Math.acos(dotProduct/Math.sqrt(documentNorm*centroidNorm));
+		return closestCentroidID;
 	}
 
 	/************************* *************************/
 
 	/**
-	 * @description Find the Jaccard distance between a document
-	 * and a centroid, both given by ID. Jaccard distance is
-	 * the ratio between the sizes of symmetric difference
-	 * and union. Note that this converts our model from
-	 * 'bag of words' to 'set of words'.
+	 * @description Find the closest centroid to a document
+	 * using Hamerly's bounds: an upper bound on the distance to
+	 * its own centroid and a lower bound on the distance to any
+	 * other. Both are carried over from the last iteration and
+	 * loosened by how far the centroids moved. If the upper
+	 * bound is below the lower bound, or below half the gap to
+	 * the nearest other centroid, no other centroid can be
+	 * closer and the search is skipped. Since the angle is a
+	 * metric, this picks the same centroid as the full search.
+	 * Bounds are only used with a margin, and any NaN forces
+	 * the full search.
 	 */
-	private double getJaccardDistance(int documentId, int centroidId) {
-		int intersection = 0;
-		int dataCounter = 0, centroidCounter = 0;
-		int dataSize = data.get(documentId).size();
-		int centroidSize = kMeans.get(centroidId-1).getCoordinatesSize();
-
-		// Calculate cardinality of intersection.
-		while(true) {
-			if(dataCounter >= dataSize) {
-				if(centroidCounter >= centroidSize) {
-					break;
-				} else {
-					centroidCounter++;
+	private boolean isPruning() {
+		return usePruning && useAngleDistance && precision == Precision.DOUBLE;
+	}
+
+	private int findClosestCentroidPruned(int currentDocumentID, double[] distances) {
+		int k = kMeans.size();
+		int d = currentDocumentID - 1;
+		int assignedCentroidID = currentMembership[d];
+		double assignedDistance = Double.NaN;
+		if (boundsValid) {
+			double upper = upperBounds[d] + centroidShifts[assignedCentroidID - 1];
+			double lower = lowerBounds[d] - (assignedCentroidID == largestShiftCentroidID ? secondLargestShift : largestShift);
+			double bound = Math.max(centroidHalfGaps[assignedCentroidID - 1], lower);
+			if (upper < bound - PRUNING_TOLERANCE && assignedDistances == null) {
+				upperBounds[d] = upper;
+				lowerBounds[d] = lower;
+				prunedEvaluations.add(k);
+				return assignedCentroidID;
+			}
+			// Tighten the upper bound and try again.
+			assignedDistance = getAngleDistance(currentDocumentID, assignedCentroidID);
+			distanceEvaluations.increment();
+			if (assignedDistance < bound - PRUNING_TOLERANCE) {
+				upperBounds[d] = assignedDistance;
+				lowerBounds[d] = lower;
+				prunedEvaluations.add(k - 1);
+				if (assignedDistances != null) {
+					assignedDistances[d] = assignedDistance;
 				}
+				return assignedCentroidID;
+			}
+		}
+
+		// Full search, keeping the two smallest distances as the new bounds.
+		double minDistance = Integer.MAX_VALUE;
+		double secondDistance = Integer.MAX_VALUE;
+		double currentDistance = 0;
+		int closestCentroidID = 1;
+		if (denseCentroids != null) {
+			denseCentroids.distances(currentDocumentID, distances);
+		} else if (invertedCentroids != null) {
+			invertedCentroids.distances(currentDocumentID, distances);
+		}
+		for (int currentCentroidID = 1; currentCentroidID <= k; ++currentCentroidID) {
+			if (currentCentroidID == assignedCentroidID && !Double.isNaN(assignedDistance)) {
+				currentDistance = assignedDistance;
 			} else {
-				if(centroidCounter >= centroidSize) {
-					dataCounter++;
-				} else {
-					if(data.get(documentId).get(dataCounter).getId() < kMeans.get(centroidId-1).getCoordinates().get(centroidCounter).getId()) {
-						dataCounter++;
-					} else if(data.get(documentId).get(dataCounter).getId() > kMeans.get(centroidId-1).getCoordinates().get(centroidCounter).getId()) {
-						centroidCounter++;
-					} else { // if(data.get(documentId).get(dataCounter).getId() < kMeans.get(centroidId).getCoordinates().get(centroidCounter).getId()) {
-						intersection++;
-						dataCounter++;
-						centroidCounter++;
-					}
-				}
+				currentDistance = distances != null ? distances[currentCentroidID - 1] : getAngleDistance(currentDocumentID, currentCentroidID);
+				distanceEvaluations.increment();
+			}
+			if (minDistance > currentDistance) {
+				closestCentroidID = currentCentroidID;
+				secondDistance = minDistance;
+				minDistance = currentDistance;
+			} else if (secondDistance > currentDistance) {
+				secondDistance = currentDistance;
+			}
+		}
+		upperBounds[d] = minDistance;
+		lowerBounds[d] = secondDistance;
+		if (assignedDistances != null) {
+			assignedDistances[d] = minDistance < Integer.MAX_VALUE ? minDistance : Double.NaN;
+		}
+		return closestCentroidID;
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description For every centroid, half the angle to the
+	 * nearest other centroid. A document closer than this to its
+	 * centroid cannot be closer to any other.
+	 */
+	private void computeCentroidHalfGaps() {
+		int k = kMeans.size();
+		if (upperBounds == null) {
+			this.upperBounds = new double[numberOfDocuments];
+			this.lowerBounds = new double[numberOfDocuments];
+		}
+		this.centroidHalfGaps = new double[k];
+		for (int i = 0; i < k; ++i) {
+			centroidHalfGaps[i] = Double.POSITIVE_INFINITY;
+		}
+		for (int i = 0; i < k; ++i) {
+			for (int j = i + 1; j < k; ++j) {
+				double gap = 0.5 * getCentroidAngle(kMeans.get(i).getWordIds(), kMeans.get(i).getWeights(), centroidNorms[i],
+						kMeans.get(j).getWordIds(), kMeans.get(j).getWeights(), centroidNorms[j]);
+				centroidHalfGaps[i] = Math.min(centroidHalfGaps[i], gap);
+				centroidHalfGaps[j] = Math.min(centroidHalfGaps[j], gap);
 			}
 		}
+	}
+
+	/************************* *************************/
 
-		// Calculate cardinality of union and symmetric difference.
-		int union = data.get(documentId).size() + kMeans.get(centroidId-1).getCoordinates().size() - intersection;
-		int symmetricDifference = union - intersection;
-		//	System.out.println();
-		//	System.out.println(intersection + ", " + union);
-		return (double)symmetricDifference/(double)union;
+	/**
+	 * @description Record how far each centroid moved in the
+	 * last update, given its previous coordinates and norm. For
+	 * the Jaccard distance, this is the distance between its old
+	 * and new support.
+	 */
+	private void computeCentroidShifts(int[][] oldWordIds, double[][] oldWeights, double[] oldNorms) {
+		int k = kMeans.size();
+		this.centroidShifts = new double[k];
+		this.largestShift = 0;
+		this.secondLargestShift = 0;
+		this.largestShiftCentroidID = -1;
+		for (int i = 0; i < k; ++i) {
+			double shift = useAngleDistance ? getCentroidAngle(oldWordIds[i], oldWeights[i], oldNorms[i],
+					kMeans.get(i).getWordIds(), kMeans.get(i).getWeights(), centroidNorms[i])
+					: Distances.jaccard(oldWordIds[i], 0, oldWordIds[i].length, kMeans.get(i).getWordIds());
+			centroidShifts[i] = shift;
+			if (Double.isNaN(shift) || shift > largestShift) {
+				secondLargestShift = largestShift;
+				largestShift = shift;
+				largestShiftCentroidID = i + 1;
+			} else if (shift > secondLargestShift) {
+				secondLargestShift = shift;
+			}
+		}
 	}
 
 	/************************* *************************/
 
 	/**
-	 * @description Adds two vectors to obtain the sum vector
-	 * with coordinates sorted in increasing order.
+	 * @description Assigns the chunks [from, to) by splitting
+	 * the range in halves down to single chunks.
 	 */
-	private List<Wount> addCoordinates(List<Wount> A, List<Wount> B) {
-		List<Wount> ans = new ArrayList<Wount>();
-		int aIndex = 0, bIndex = 0;
+	@SuppressWarnings("serial")
+	private class AssignmentTask extends RecursiveAction {
 
-		while(true) {
-			if(aIndex >= A.size()) {
-				if(bIndex >= B.size()) {
-					break;
-				} else {
-					ans.add(B.get(bIndex++));
+		private int from;
+		private int to;
+		private int iteration;
+
+		public AssignmentTask(int from, int to, int iteration) {
+			this.from = from;
+			this.to = to;
+			this.iteration = iteration;
+		}
+
+		protected void compute() {
+			if (to - from <= 1) {
+				for (int chunk = from; chunk < to; ++chunk) {
+					assignChunk(chunk, iteration);
 				}
 			} else {
-				if(bIndex >= B.size()) {
-					ans.add(A.get(aIndex++));
-				} else {
-					if(A.get(aIndex).getId() < B.get(bIndex).getId()) {
-						ans.add(A.get(aIndex++));
-					} else if(A.get(aIndex).getId() > B.get(bIndex).getId()) {
-						ans.add(B.get(bIndex++));
-					} else { // if(A.get(aIndex).getId() == B.get(bIndex).getId()) {
-						ans.add(new Wount(A.get(aIndex).getId(), A.get(aIndex++).getCount() + B.get(bIndex++).getCount()));
-					}
+				int mid = (from + to) >>> 1;
+				invokeAll(new AssignmentTask(from, mid, iteration), new AssignmentTask(mid, to, iteration));
+			}
+		}
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Recompute centroids by taking average
+	 * of formed clusters.
+	 */
+	private void recomputeCentroids() {
+//		System.out.print("Recomputing centroids... ");
+//		output.append("Recomputing centroids... ");
+		int k = kMeans.size();
+		int[][] oldWordIds = new int[k][];
+		double[][] oldWeights = new double[k][];
+		double[] oldNorms = centroidNorms;
+		for (int i = 0; i < k; ++i) {
+			oldWordIds[i] = kMeans.get(i).getWordIds();
+			oldWeights[i] = kMeans.get(i).getWeights();
+		}
+
+		// Sum up coordinates per cluster and normalise each centroid.
+		// Centroids of clusters that no document left or joined are
+		// kept as they are, including their truncation.
+		if (useIncrementalUpdates) {
+			centroidUpdater.update(kMeans, currentMembership, updatedCentroids);
+		} else {
+			centroidUpdater.recompute(kMeans, currentMembership);
+			Arrays.fill(updatedCentroids, true);
+		}
+		this.truncatedTerms = 0;
+		if (truncation != null) {
+			for (int i = 0; i < k; ++i) {
+				if (updatedCentroids[i]) {
+					truncatedCentroidTerms[i] = truncation.truncate(kMeans.get(i), idf);
 				}
+				truncatedTerms += truncatedCentroidTerms[i];
 			}
 		}
-		return ans;
+		computeCentroidNorms();
+		if (minHash != null) {
+			minHash.setCentroids(kMeans);
+		}
+		if (denseCentroids != null) {
+			denseCentroids.setCentroids(kMeans, centroidNorms);
+		}
+		if (invertedCentroids != null) {
+			invertedCentroids.setCentroids(kMeans, centroidNorms);
+		}
+		if (compactCentroids != null) {
+			compactCentroids.setCentroids(kMeans, centroidNorms);
+		}
+		if (isPruning() || shiftTolerance > 0) {
+			computeCentroidShifts(oldWordIds, oldWeights, oldNorms);
+		}
+//		System.out.println("done!");
+//		output.append("done!\n\n");
+//		System.out.println();
+		//		System.out.println(kMeans);
 	}
 
 	/************************* *************************/
 
 	/**
-	 * @description Displays elements in a cluster.
+	 * @description Check whether the clustering method has
+	 * converged to its final point. Uses a threshold defined
+	 * as a constant. Callers that drive iterate themselves stop
+	 * on it like run does.
 	 */
-	private void displayClusters(boolean showClusterSizeOnly) {
-		List<List<Integer>> clusters = new ArrayList<List<Integer>>();
+	public boolean hasConverged() {
+		//		System.out.println("Checking for convergence with threshold "+ACCEPTANCE_THRESHOLD);
+		if (iterations == 0) {
+			return false;
+		}
+		// A document kept its cluster if its membership, or for the
+		// Jaccard distance its average membership, is unchanged.
+		if (sameDocuments >= acceptanceThreshold * numberOfDocuments) {
+			return true;
+		}
+		if (objectiveTolerance > 0 && iterations > 1 && previousObjective - objective < objectiveTolerance * previousObjective) {
+			return true;
+		}
+		return shiftTolerance > 0 && largestShift <= shiftTolerance;
+	}
+
+	/************************* *************************/
 
-		// Initialise k empty clusters.
+	/**
+	 * @description Total number of terms in all k centroids,
+	 * not only the ones updated in the last iteration.
+	 */
+	private long countCentroidTerms() {
+		long ans = 0;
 		for(int i=0;i<kMeans.size();++i) {
-			clusters.add(new ArrayList<Integer>());
+			ans += kMeans.get(i).getCoordinatesSize();
 		}
+		return ans;
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Compute the squared tf-idf norm of every
+	 * centroid. Must be called whenever the centroids change.
+	 */
+	private void computeCentroidNorms() {
+		int k = kMeans.size();
+		this.centroidNorms = new double[k];
+		for(int i=0;i<k;++i) {
+			int[] centroidWords = kMeans.get(i).getWordIds();
+			centroidNorms[i] = Distances.squaredNorm(centroidWords, kMeans.get(i).getWeights(), 0, centroidWords.length, idf);
+		}
+	}
 
-		// Populate clusters.
+	/************************* *************************/
+
+	/**
+	 * @description Find the angle between two documents in
+	 * the vector model using tf-idf weights for words. The
+	 * norms come from the caches, so only the shared words
+	 * contribute here.
+	 */
+	private double getAngleDistance(int documentId, int centroidId) {
+		if (denseCentroids != null) {
+			return denseCentroids.angle(documentId, centroidId-1);
+		}
+		Centroid centroid = kMeans.get(centroidId-1);
+		return Distances.angle(data, documentId, centroid.getWordIds(), centroid.getWeights(), centroidNorms[centroidId-1]);
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Find the angle between two centroids given
+	 * by their coordinates and squared tf-idf norms.
+	 */
+	private double getCentroidAngle(int[] aWords, double[] aWeights, double aNorm, int[] bWords, double[] bWeights, double bNorm) {
+		return Distances.angle(aWords, aWeights, 0, aWords.length, aNorm, bWords, bWeights, bNorm, idf);
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Find the Jaccard distance between a document
+	 * and a centroid, both given by ID. Jaccard distance is
+	 * the ratio between the sizes of symmetric difference
+	 * and union. Note that this converts our model from
+	 * 'bag of words' to 'set of words'.
+	 */
+	private double getJaccardDistance(int documentId, int centroidId) {
+		return Distances.jaccard(data.getWordIds(), data.getRowStart(documentId), data.getRowEnd(documentId), kMeans.get(centroidId-1).getWordIds());
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Displays elements in a cluster. The clusters
+	 * are streamed to the console, but only their heading goes
+	 * into the output; writeResults adds them when saving it.
+	 */
+	private void displayClusters(boolean showClusterSizeOnly) {
+		int[] sizes = new int[kMeans.size()];
 		for(int i=0;i<currentMembership.length;++i) {
-			clusters.get(currentMembership[i]-1).add(i+1);
+			sizes[currentMembership[i]-1]++;
 		}
 
-		Iterator<List<Integer>> outputIter = clusters.iterator();
-		List<Integer> currCluster = null;
 		if(showClusterSizeOnly) {
-			System.out.println("Cluster sizes:");
+			println("Cluster sizes:");
 			output.append("Cluster sizes:\n");
-			while(outputIter.hasNext()) {
-				currCluster = outputIter.next();
-				System.out.print(currCluster.size() + ", ");
-				output.append(currCluster.size() + ", ");
+			for(int i=0;i<sizes.length;++i) {
+				print(sizes[i] + ", ");
+				output.append(sizes[i] + ", ");
 			}
-			System.out.println();
+			println("");
 			output.append("\n");
 		} else {
-			System.out.println("Clusters:");
+			println("Clusters:");
 			output.append("Clusters:\n");
-			while(outputIter.hasNext()) {
-				currCluster = outputIter.next();
-				System.out.println(currCluster);
-				output.append(currCluster + "\n");
+			if (verbose) {
+				try {
+					ResultWriter.writeText(currentMembership, kMeans.size(), new OutputStreamWriter(System.out));
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
 			}
 		}
 	}
@@ -501,10 +1190,9 @@ public class KMeansClustering {
 	 */
 	private void getDocumentSizes() {
 		for(int i=0;i<numberOfDocuments;++i) {
-			List<Wount> wounts = data.get(i+1);
 			int tmpAns = 0;
-			for(Wount currWount : wounts) {
-				tmpAns += currWount.getCount();
+			for(int j=data.getRowStart(i+1);j<data.getRowEnd(i+1);++j) {
+				tmpAns += data.getCount(j);
 			}
 			documentSizes.add(tmpAns);
 		}
@@ -514,11 +1202,21 @@ public class KMeansClustering {
 
 	/**
 	 * @throws IOException 
-	 * @description Main function for local testing.
+	 * @description Main function for local testing. Loads the
+	 * corpus once and clusters it for every k concurrently.
 	 */
 	public static void main(String[] args) throws IOException {
+		setFilepaths();
+		SparseCorpus corpus = readData(KOS_DATASET_FILEPATH, null);
+		ClusteringBatch batch = new ClusteringBatch(corpus);
 		for(int i=2;i<11;++i) {
-			KMeansClustering km = new KMeansClustering(i, true);
+			batch.addJob(i, true);
+		}
+		List<ClusteringResult> results = batch.run(Runtime.getRuntime().availableProcessors());
+		for(int i=0;i<results.size();++i) {
+			System.out.println(results.get(i));
+			FileIo.writeToFile(results.get(i).getOutput(), KOS_DATASET_OUTPUT_FILEPATH, i > 0);
+			ResultWriter.writeText(results.get(i).getMembership(), results.get(i).getK(), KOS_DATASET_OUTPUT_FILEPATH, true);
 		}
 	}
 }
@@ -0,0 +1,157 @@
+package clust;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import ds.SparseCorpus;
+
+/**
+ * k-means|| seeding (Bahmani et al., 2012). Starting from one
+ * random document, each round keeps every document
+ * independently with probability l * d^2 / cost, where d is
+ * its distance to the nearest candidate so far and l is the
+ * oversampling factor times k. After a few rounds each
+ * candidate is weighted by the number of documents nearest to
+ * it, and the candidates are reclustered down to k seeds with
+ * weighted k-means++.
+ *
+ * A document's coin flip in a round depends only on the seed,
+ * the round and its ID, so the candidates do not depend on
+ * how the work is split across threads.
+ *
+ */
+public class KMeansParallelSeeding extends DistanceSeeding {
+
+	private static final int DEFAULT_ROUNDS = 5;
+	private static final double DEFAULT_OVERSAMPLING = 2.0;
+
+	private int rounds;
+	private double oversampling;
+
+	/************************* *************************/
+
+	/**
+	 * Constructor
+	 */
+	public KMeansParallelSeeding() {
+		this(DEFAULT_ROUNDS, DEFAULT_OVERSAMPLING);
+	}
+
+	/**
+	 * Constructor. About oversampling * k candidates are added
+	 * in each of the given number of rounds.
+	 */
+	public KMeansParallelSeeding(int rounds, double oversampling) {
+		this.rounds = rounds;
+		this.oversampling = oversampling;
+	}
+
+	/************************* *************************/
+
+	public int[] chooseSeeds(SparseCorpus data, int k, boolean useAngleDistance, long seed, ForkJoinPool pool) {
+		int numberOfDocuments = data.getNumberOfDocuments();
+		Random random = new Random(seed);
+		long roundSeed = random.nextLong();
+		Nearest nearest = new Nearest(data, useAngleDistance, (int) (oversampling * k * rounds) + 1);
+		int[] candidates = new int[Math.max(16, 2 * k)];
+		int numberOfCandidates = 0;
+		candidates[numberOfCandidates++] = random.nextInt(numberOfDocuments) + 1;
+		nearest.addSeeds(candidates, 0, 1, pool);
+
+		// Oversample candidates in a few rounds.
+		double expected = oversampling * k;
+		for (int round = 1; round <= rounds; ++round) {
+			double cost = 0;
+			for (int d = 1; d <= numberOfDocuments; ++d) {
+				cost += nearest.weight(d);
+			}
+			if (!(cost > 0)) {
+				break;
+			}
+			int first = numberOfCandidates;
+			for (int d = 1; d <= numberOfDocuments; ++d) {
+				double weight = nearest.weight(d);
+				if (weight > 0 && uniform(roundSeed, round, d) < expected * weight / cost) {
+					if (numberOfCandidates == candidates.length) {
+						candidates = Arrays.copyOf(candidates, 2 * candidates.length);
+					}
+					candidates[numberOfCandidates++] = d;
+				}
+			}
+			nearest.addSeeds(candidates, first, numberOfCandidates, pool);
+		}
+
+		// Weight each candidate by the documents nearest to it.
+		double[] candidateWeights = new double[numberOfCandidates];
+		for (int d = 0; d < numberOfDocuments; ++d) {
+			if (nearest.seedIndices[d] >= 0) {
+				candidateWeights[nearest.seedIndices[d]] += 1;
+			}
+		}
+
+		int[] ans = new int[k];
+		if (numberOfCandidates <= k) {
+			System.arraycopy(candidates, 0, ans, 0, numberOfCandidates);
+			for (int i = numberOfCandidates; i < k; ++i) {
+				ans[i] = random.nextInt(numberOfDocuments) + 1;
+			}
+			return ans;
+		}
+		return recluster(nearest, candidates, candidateWeights, numberOfCandidates, k, random);
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Weighted k-means++ over the candidates. The
+	 * candidates are seeds of the nearest structure, in order,
+	 * so their coordinates are already copied out.
+	 */
+	private int[] recluster(Nearest nearest, int[] candidates, double[] candidateWeights, int numberOfCandidates, int k, Random random) {
+		int[] ans = new int[k];
+		double[] minDistances = new double[numberOfCandidates];
+		double[] weights = new double[numberOfCandidates];
+		Arrays.fill(minDistances, Double.POSITIVE_INFINITY);
+		double total = 0;
+		for (int c = 0; c < numberOfCandidates; ++c) {
+			total += candidateWeights[c];
+		}
+		int chosen = sampleProportional(candidateWeights, numberOfCandidates, total, random.nextDouble());
+		for (int i = 0; i < k; ++i) {
+			if (chosen < 0) {
+				chosen = random.nextInt(numberOfCandidates);
+			}
+			ans[i] = candidates[chosen];
+			total = 0;
+			for (int c = 0; c < numberOfCandidates; ++c) {
+				double distance = nearest.distance(candidates[c], nearest.seedWords[chosen], nearest.seedWeights[chosen], nearest.seedNorms[chosen]);
+				if (distance < minDistances[c]) {
+					minDistances[c] = distance;
+				}
+				weights[c] = minDistances[c] < Double.POSITIVE_INFINITY ? candidateWeights[c] * minDistances[c] * minDistances[c] : 0;
+				total += weights[c];
+			}
+			chosen = sampleProportional(weights, numberOfCandidates, total, random.nextDouble());
+		}
+		return ans;
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description A uniform number in [0, 1) determined by the
+	 * seed, round and document (SplitMix64 finaliser).
+	 */
+	private static double uniform(long seed, int round, int documentId) {
+		long z = seed + 0x9E3779B97F4A7C15L * (((long) round << 32) + documentId);
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		z = z ^ (z >>> 31);
+		return (z >>> 11) * 0x1.0p-53;
+	}
+
+	public String toString() {
+		return "k-means||";
+	}
+}
@@ -0,0 +1,42 @@
+package clust;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import ds.SparseCorpus;
+
+/**
+ * k-means++ seeding (Arthur and Vassilvitskii, 2007). The
+ * first seed is a uniformly random document; every further
+ * seed is drawn with probability proportional to the squared
+ * distance of a document to its nearest seed so far.
+ *
+ */
+public class KMeansPlusPlusSeeding extends DistanceSeeding {
+
+	public int[] chooseSeeds(SparseCorpus data, int k, boolean useAngleDistance, long seed, ForkJoinPool pool) {
+		int numberOfDocuments = data.getNumberOfDocuments();
+		Random random = new Random(seed);
+		Nearest nearest = new Nearest(data, useAngleDistance, k);
+		double[] weights = new double[numberOfDocuments];
+		int[] ans = new int[k];
+		ans[0] = random.nextInt(numberOfDocuments) + 1;
+		nearest.addSeeds(ans, 0, 1, pool);
+		for (int i = 1; i < k; ++i) {
+			double total = 0;
+			for (int d = 0; d < numberOfDocuments; ++d) {
+				weights[d] = nearest.weight(d + 1);
+				total += weights[d];
+			}
+			int index = sampleProportional(weights, numberOfDocuments, total, random.nextDouble());
+			// If every document already is a seed, fall back to a uniform choice.
+			ans[i] = index < 0 ? random.nextInt(numberOfDocuments) + 1 : index + 1;
+			nearest.addSeeds(ans, i, i + 1, pool);
+		}
+		return ans;
+	}
+
+	public String toString() {
+		return "k-means++";
+	}
+}
@@ -0,0 +1,67 @@
+package clust;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+
+/**
+ * An iteration listener that writes one line per iteration to
+ * a file. Lines are flushed as they are written, so the file
+ * can be followed while a run is in progress. Write errors are
+ * reported once on the console and then ignored, so that a
+ * full disk does not stop the clustering.
+ *
+ */
+public abstract class MetricsSink implements IterationListener {
+
+	private BufferedWriter writer;
+	private boolean failed;
+
+	/************************* *************************/
+
+	/**
+	 * Constructor. Starts a new file with the header line of the
+	 * format, or appends to an existing one.
+	 */
+	public MetricsSink(String filepath, boolean append) throws IOException {
+		this.writer = new BufferedWriter(new FileWriter(filepath, append));
+		String header = getHeader();
+		if (!append && header != null) {
+			writer.write(header);
+			writer.newLine();
+			writer.flush();
+		}
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description The first line of a new file, or null.
+	 */
+	protected abstract String getHeader();
+
+	/**
+	 * @description One line describing the iteration.
+	 */
+	protected abstract String format(IterationMetrics metrics);
+
+	/************************* *************************/
+
+	public synchronized void iterationCompleted(IterationMetrics metrics) {
+		if (failed) {
+			return;
+		}
+		try {
+			writer.write(format(metrics));
+			writer.newLine();
+			writer.flush();
+		} catch (IOException e) {
+			failed = true;
+			System.err.println("Could not write iteration metrics: " + e.getMessage());
+		}
+	}
+
+	public synchronized void close() throws IOException {
+		writer.close();
+	}
+}
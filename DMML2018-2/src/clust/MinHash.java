@@ -0,0 +1,251 @@
+package clust;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import ds.Centroid;
+import ds.SparseCorpus;
+
+/**
+ * MinHash signatures of the word sets of documents and
+ * centroids, to estimate the Jaccard distance in time
+ * proportional to the signature length instead of the size of
+ * the centroid support. The fraction of signature positions
+ * on which two sets agree is an unbiased estimate of their
+ * Jaccard similarity, with a standard error of at most
+ * 0.5/sqrt(signature length).
+ *
+ * With banding, the signature is cut into bands and the
+ * centroids are indexed by the hash of each band; only the
+ * centroids that share a band with a document are candidates
+ * for it. If none do, every centroid is a candidate. Banding
+ * only finds pairs whose similarity is well above
+ * (1/bands)^(1/rows), so it pays off for many centroids
+ * close to their documents.
+ *
+ */
+public class MinHash {
+
+	private static final int SIGNATURE_CHUNK_SIZE = 256;
+
+	private int signatureLength;
+	private int bands;
+	private int rows;
+	private long[] multipliers;
+	private long[] increments;
+	private int[] documentSignatures;
+	private int k;
+	private int[] centroidSignatures;
+	private boolean[] emptyCentroids;
+
+	// Per band, the centroid band keys in sorted order and the
+	// centroid index for each of them.
+	private long[][] bandKeys;
+	private int[][] bandCentroids;
+
+	/************************* *************************/
+
+	/**
+	 * Constructor. Computes the signatures of all documents. A
+	 * band count of 0 disables banding; otherwise it must divide
+	 * the signature length.
+	 */
+	public MinHash(SparseCorpus data, int signatureLength, int bands, long seed, ForkJoinPool pool) {
+		if (signatureLength < 1 || (bands > 0 && signatureLength % bands != 0)) {
+			throw(new RuntimeException("The number of bands must divide the signature length!"));
+		}
+		this.signatureLength = signatureLength;
+		this.bands = bands;
+		this.rows = bands > 0 ? signatureLength / bands : 0;
+		// Multiply-shift hashing with odd multipliers.
+		Random random = new Random(seed);
+		this.multipliers = new long[signatureLength];
+		this.increments = new long[signatureLength];
+		for (int i = 0; i < signatureLength; ++i) {
+			multipliers[i] = random.nextLong() | 1;
+			increments[i] = random.nextLong();
+		}
+
+		this.documentSignatures = new int[data.getNumberOfDocuments() * signatureLength];
+		if (pool != null) {
+			pool.invoke(new SignatureTask(data, 0, data.getNumberOfDocuments()));
+		} else {
+			for (int d = 0; d < data.getNumberOfDocuments(); ++d) {
+				sign(data.getWordIds(), data.getRowPtr()[d], data.getRowPtr()[d + 1], documentSignatures, d * signatureLength);
+			}
+		}
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Getter functions.
+	 */
+	public int getSignatureLength() { return this.signatureLength; }
+	public int getBands() { return this.bands; }
+
+	/************************* *************************/
+
+	/**
+	 * @description Compute the signatures of the centroids and
+	 * rebuild the band index. Must be called whenever the
+	 * centroids change.
+	 */
+	public void setCentroids(List<Centroid> kMeans) {
+		this.k = kMeans.size();
+		this.centroidSignatures = new int[k * signatureLength];
+		this.emptyCentroids = new boolean[k];
+		for (int c = 0; c < k; ++c) {
+			int[] words = kMeans.get(c).getWordIds();
+			emptyCentroids[c] = words.length == 0;
+			sign(words, 0, words.length, centroidSignatures, c * signatureLength);
+		}
+		if (bands == 0) {
+			return;
+		}
+		this.bandKeys = new long[bands][];
+		this.bandCentroids = new int[bands][];
+		for (int b = 0; b < bands; ++b) {
+			// Insertion sort of the (key, centroid) pairs by key; k is
+			// small compared to the work of an assignment step.
+			long[] keys = new long[k];
+			int[] centroids = new int[k];
+			for (int c = 0; c < k; ++c) {
+				long key = bandKey(centroidSignatures, c * signatureLength + b * rows);
+				int i = c;
+				for (; i > 0 && keys[i - 1] > key; --i) {
+					keys[i] = keys[i - 1];
+					centroids[i] = centroids[i - 1];
+				}
+				keys[i] = key;
+				centroids[i] = c;
+			}
+			bandKeys[b] = keys;
+			bandCentroids[b] = centroids;
+		}
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Estimated Jaccard distance between a document
+	 * and a centroid (from 0).
+	 */
+	public double distance(int documentId, int centroidIndex) {
+		if (emptyCentroids[centroidIndex]) {
+			return 1;
+		}
+		int d = (documentId - 1) * signatureLength;
+		int c = centroidIndex * signatureLength;
+		int matches = 0;
+		for (int i = 0; i < signatureLength; ++i) {
+			if (documentSignatures[d + i] == centroidSignatures[c + i]) {
+				matches++;
+			}
+		}
+		return 1 - (double) matches / signatureLength;
+	}
+
+	/**
+	 * @description Mark the centroids (from 0) that share a band
+	 * with the document and return how many there are. Without
+	 * banding, or if there are none, every centroid is marked.
+	 */
+	public int getCandidates(int documentId, boolean[] candidates) {
+		int count = 0;
+		if (bands > 0) {
+			Arrays.fill(candidates, 0, k, false);
+			int d = (documentId - 1) * signatureLength;
+			for (int b = 0; b < bands; ++b) {
+				long key = bandKey(documentSignatures, d + b * rows);
+				long[] keys = bandKeys[b];
+				int i = Arrays.binarySearch(keys, key);
+				if (i < 0) {
+					continue;
+				}
+				while (i > 0 && keys[i - 1] == key) {
+					i--;
+				}
+				for (; i < k && keys[i] == key; ++i) {
+					int c = bandCentroids[b][i];
+					if (!candidates[c]) {
+						candidates[c] = true;
+						count++;
+					}
+				}
+			}
+		}
+		if (count == 0) {
+			Arrays.fill(candidates, 0, k, true);
+			count = k;
+		}
+		return count;
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Write the signature of the word set
+	 * words[from, to) at the given offset. The signature of the
+	 * empty set is all Integer.MAX_VALUE.
+	 */
+	private void sign(int[] words, int from, int to, int[] signatures, int offset) {
+		Arrays.fill(signatures, offset, offset + signatureLength, Integer.MAX_VALUE);
+		for (int j = from; j < to; ++j) {
+			long word = words[j];
+			for (int i = 0; i < signatureLength; ++i) {
+				int hash = (int) ((multipliers[i] * word + increments[i]) >>> 33);
+				if (hash < signatures[offset + i]) {
+					signatures[offset + i] = hash;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @description Hash of the rows of one band of a signature.
+	 */
+	private long bandKey(int[] signatures, int offset) {
+		long key = 0;
+		for (int i = 0; i < rows; ++i) {
+			key = (key + signatures[offset + i]) * 0x9E3779B97F4A7C15L;
+			key ^= key >>> 29;
+		}
+		return key;
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Computes the signatures of the documents with
+	 * IDs in [from + 1, to + 1).
+	 */
+	@SuppressWarnings("serial")
+	private class SignatureTask extends RecursiveAction {
+
+		private SparseCorpus data;
+		private int from;
+		private int to;
+
+		public SignatureTask(SparseCorpus data, int from, int to) {
+			this.data = data;
+			this.from = from;
+			this.to = to;
+		}
+
+		protected void compute() {
+			if (to - from <= SIGNATURE_CHUNK_SIZE) {
+				int[] rowPtr = data.getRowPtr();
+				for (int d = from; d < to; ++d) {
+					sign(data.getWordIds(), rowPtr[d], rowPtr[d + 1], documentSignatures, d * signatureLength);
+				}
+			} else {
+				int mid = (from + to) >>> 1;
+				invokeAll(new SignatureTask(data, from, mid), new SignatureTask(data, mid, to));
+			}
+		}
+	}
+}
@@ -0,0 +1,396 @@
+package clust;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import ds.Centroid;
+import ds.SparseCorpus;
+import util.DocwordStream;
+
+/**
+ * Mini-batch k-means (Sculley, 2010). Each step samples a
+ * batch of documents, assigns them to their closest centroid
+ * with the usual angle or Jaccard distance, and then moves
+ * each centroid towards its new members with a learning rate
+ * of 1 / (number of documents it has absorbed so far).
+ *
+ * Documents come either from a loaded corpus, sampled
+ * uniformly with replacement, or straight from a docword
+ * file, in which case the corpus is never held in memory and
+ * each batch is the next B documents of the file, starting
+ * over at its end. A streamed step then parses B documents,
+ * so D / B steps cost one pass over the file, on top of the
+ * pass for the idf weights and the final assignment pass.
+ * The batches follow the order of the file, so a file sorted
+ * by topic should be shuffled first.
+ *
+ * Centroids are dense, stored as scale * vector so that the
+ * (1 - rate) decay of a whole centroid costs O(1) and an
+ * update only touches the words of the document.
+ *
+ */
+public class MiniBatchKMeans {
+
+	private static final int DEFAULT_ITERATIONS = 100;
+	private static final int RENORMALISE_INTERVAL = 16;
+	private static final double MIN_SCALE = 1e-100;
+
+	private SparseCorpus data;
+	private String filepath;
+	private DocwordStream stream;
+
+	private int k;
+	private boolean useAngleDistance;
+	private int batchSize;
+	private int maxIterations = DEFAULT_ITERATIONS;
+	private Random random;
+
+	private int numberOfDocuments;
+	private int numberOfWords;
+	private double[] idf;
+
+	// Centroid c is centroidScales[c] * centroidVectors[c].
+	private double[][] centroidVectors;
+	private double[] centroidScales;
+	private double[] centroidNorms;
+	private int[] centroidSupports;
+	private long[] centroidCounts;
+
+	// The current batch in compressed sparse row form.
+	private int batchLength;
+	private int[] batchRowPtr;
+	private int[] batchWordIds = new int[1024];
+	private double[] batchCounts = new double[1024];
+	private double[] batchNorms;
+	private int[] batchAssignments;
+
+	private int[] membership;
+	private int iterations;
+	private long distanceEvaluations;
+
+	/************************* *************************/
+
+	/**
+	 * Constructor for a loaded corpus.
+	 */
+	public MiniBatchKMeans(SparseCorpus data, int k, boolean useAngleDistance, int batchSize, long seed) {
+		this.data = data;
+		this.k = k;
+		this.useAngleDistance = useAngleDistance;
+		this.batchSize = batchSize;
+		this.random = new Random(seed);
+	}
+
+	/**
+	 * Constructor for a docword file that is streamed instead of
+	 * loaded.
+	 */
+	public MiniBatchKMeans(String filepath, int k, boolean useAngleDistance, int batchSize, long seed) {
+		this.filepath = filepath;
+		this.k = k;
+		this.useAngleDistance = useAngleDistance;
+		this.batchSize = batchSize;
+		this.random = new Random(seed);
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Getter functions. The membership array holds
+	 * the centroid ID (from 1) of each document, by ID - 1.
+	 */
+	public int getIterations() { return this.iterations; }
+	public int[] getMembership() { return this.membership; }
+	public long getDistanceEvaluations() { return this.distanceEvaluations; }
+
+	/**
+	 * @description Setter functions.
+	 */
+	public void setMaxIterations(int maxIterations) { this.maxIterations = maxIterations; }
+
+	/************************* *************************/
+
+	/**
+	 * @description Train the centroids on maxIterations batches
+	 * and then assign every document once.
+	 */
+	public void run() throws IOException {
+		if (data != null) {
+			this.numberOfDocuments = data.getNumberOfDocuments();
+			this.numberOfWords = data.getNumberOfWords();
+			this.idf = data.getIdf();
+			initialiseCentroids();
+			for (int i = 1; i <= k; ++i) {
+				int documentId = numberOfDocuments / k * i;
+				setCentroid(i - 1, data.getWordIds(), data.getCounts(), data.getRowStart(documentId), data.getRowEnd(documentId));
+				recomputeNorm(i - 1);
+			}
+		} else {
+			this.stream = new DocwordStream(filepath);
+			this.numberOfDocuments = stream.getNumberOfDocuments();
+			this.numberOfWords = stream.getNumberOfWords();
+			initialiseCentroids();
+			scanStream();
+		}
+		this.batchRowPtr = new int[batchSize + 1];
+		this.batchNorms = new double[batchSize];
+		this.batchAssignments = new int[batchSize];
+
+		try {
+			for (iterations = 1; iterations <= maxIterations; ++iterations) {
+				if (data != null) {
+					sampleBatch();
+				} else {
+					streamBatch();
+				}
+				for (int b = 0; b < batchLength; ++b) {
+					batchNorms[b] = Distances.squaredNorm(batchWordIds, batchCounts, batchRowPtr[b], batchRowPtr[b + 1], idf);
+					batchAssignments[b] = findClosestCentroid(batchWordIds, batchCounts, batchRowPtr[b], batchRowPtr[b + 1], batchNorms[b]);
+				}
+				for (int b = 0; b < batchLength; ++b) {
+					moveCentroid(batchAssignments[b] - 1, batchRowPtr[b], batchRowPtr[b + 1], batchNorms[b]);
+				}
+				if (iterations % RENORMALISE_INTERVAL == 0) {
+					for (int c = 0; c < k; ++c) {
+						recomputeNorm(c);
+					}
+				}
+			}
+			iterations = maxIterations;
+			assignAll();
+		} finally {
+			if (stream != null) {
+				stream.close();
+			}
+		}
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Return the centroids as sparse Centroid
+	 * objects.
+	 */
+	public List<Centroid> getCentroids() {
+		List<Centroid> ans = new ArrayList<Centroid>();
+		for (int c = 0; c < k; ++c) {
+			double[] vector = centroidVectors[c];
+			int[] wordIds = new int[centroidSupports[c]];
+			double[] weights = new double[centroidSupports[c]];
+			int j = 0;
+			for (int w = 0; w < numberOfWords && j < wordIds.length; ++w) {
+				if (vector[w] != 0) {
+					wordIds[j] = w + 1;
+					weights[j++] = centroidScales[c] * vector[w];
+				}
+			}
+			ans.add(new Centroid(c + 1, wordIds, weights));
+		}
+		return ans;
+	}
+
+	/************************* *************************/
+
+	private void initialiseCentroids() {
+		this.centroidVectors = new double[k][numberOfWords];
+		this.centroidScales = new double[k];
+		this.centroidNorms = new double[k];
+		this.centroidSupports = new int[k];
+		this.centroidCounts = new long[k];
+	}
+
+	/**
+	 * @description Seed a centroid with a document, counted as
+	 * the first document it has absorbed. Its norm is computed
+	 * once the idf weights are known.
+	 */
+	private void setCentroid(int c, int[] wordIds, double[] counts, int start, int end) {
+		for (int i = start; i < end; ++i) {
+			centroidVectors[c][wordIds[i] - 1] = counts[i];
+		}
+		centroidScales[c] = 1;
+		centroidSupports[c] = end - start;
+		centroidCounts[c] = 1;
+	}
+
+	/**
+	 * @description One pass over the file to count document
+	 * frequencies for the idf weights, picking up the seed
+	 * documents (equally spaced by ID) on the way.
+	 */
+	private void scanStream() throws IOException {
+		int[] documentFrequencies = new int[numberOfWords];
+		int spacing = numberOfDocuments / k;
+		while (stream.nextDocument()) {
+			int documentId = stream.getDocumentId();
+			int[] wordIds = stream.getWordIds();
+			for (int i = 0; i < stream.getLength(); ++i) {
+				documentFrequencies[wordIds[i] - 1]++;
+			}
+			if (spacing > 0 && documentId % spacing == 0 && documentId / spacing <= k) {
+				setCentroid(documentId / spacing - 1, wordIds, stream.getCounts(), 0, stream.getLength());
+			}
+		}
+		this.idf = new double[numberOfWords];
+		for (int w = 0; w < numberOfWords; ++w) {
+			idf[w] = Math.log(numberOfDocuments) - Math.log(documentFrequencies[w]);
+		}
+		for (int c = 0; c < k; ++c) {
+			recomputeNorm(c);
+		}
+		stream.reset();
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Fill the batch with documents drawn uniformly
+	 * with replacement from the loaded corpus.
+	 */
+	private void sampleBatch() {
+		batchLength = 0;
+		for (int b = 0; b < batchSize; ++b) {
+			int documentId = random.nextInt(numberOfDocuments) + 1;
+			appendToBatch(data.getWordIds(), data.getCounts(), data.getRowStart(documentId), data.getRowEnd(documentId));
+		}
+	}
+
+	/**
+	 * @description Fill the batch with the next documents of the
+	 * file, starting over at its end.
+	 */
+	private void streamBatch() throws IOException {
+		batchLength = 0;
+		while (batchLength < batchSize) {
+			if (!stream.nextDocument()) {
+				stream.reset();
+				if (!stream.nextDocument()) {
+					throw new IOException("No documents in " + filepath);
+				}
+			}
+			appendToBatch(stream.getWordIds(), stream.getCounts(), 0, stream.getLength());
+		}
+	}
+
+	private void appendToBatch(int[] wordIds, double[] counts, int start, int end) {
+		int offset = batchRowPtr[batchLength];
+		int needed = offset + end - start;
+		if (needed > batchWordIds.length) {
+			int capacity = Math.max(needed, 2 * batchWordIds.length);
+			int[] newWordIds = new int[capacity];
+			double[] newCounts = new double[capacity];
+			System.arraycopy(batchWordIds, 0, newWordIds, 0, offset);
+			System.arraycopy(batchCounts, 0, newCounts, 0, offset);
+			batchWordIds = newWordIds;
+			batchCounts = newCounts;
+		}
+		System.arraycopy(wordIds, start, batchWordIds, offset, end - start);
+		System.arraycopy(counts, start, batchCounts, offset, end - start);
+		batchRowPtr[++batchLength] = needed;
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Find the closest centroid to a document with
+	 * the dense kernels. Ties go to the lowest centroid ID.
+	 */
+	private int findClosestCentroid(int[] wordIds, double[] counts, int start, int end, double documentNorm) {
+		double minDistance = Integer.MAX_VALUE;
+		double currentDistance = 0;
+		int closestCentroidID = 1;
+		for (int c = 0; c < k; ++c) {
+			if (useAngleDistance) {
+				double dotProduct = centroidScales[c] * Distances.dotToDense(wordIds, counts, start, end, centroidVectors[c], idf);
+				currentDistance = Math.acos(Math.min(1, dotProduct / Math.sqrt(documentNorm * centroidNorms[c])));
+			} else {
+				currentDistance = Distances.jaccardToDense(wordIds, start, end, centroidVectors[c], centroidSupports[c]);
+			}
+			if (minDistance > currentDistance) {
+				closestCentroidID = c + 1;
+				minDistance = currentDistance;
+			}
+		}
+		distanceEvaluations += k;
+		return closestCentroidID;
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Move centroid c towards a batch document:
+	 * c = (1 - rate) c + rate x with rate = 1 / count. The decay
+	 * goes into the scale, and the squared norm is updated from
+	 * the old norm, the dot product and the document norm.
+	 */
+	private void moveCentroid(int c, int start, int end, double documentNorm) {
+		centroidCounts[c]++;
+		double rate = 1.0 / centroidCounts[c];
+		double[] vector = centroidVectors[c];
+		double dotProduct = centroidScales[c] * Distances.dotToDense(batchWordIds, batchCounts, start, end, vector, idf);
+		centroidNorms[c] = (1 - rate) * (1 - rate) * centroidNorms[c] + 2 * rate * (1 - rate) * dotProduct + rate * rate * documentNorm;
+		double scale = centroidScales[c] * (1 - rate);
+		if (scale < MIN_SCALE) {
+			for (int w = 0; w < numberOfWords; ++w) {
+				vector[w] *= scale;
+			}
+			scale = 1;
+		}
+		centroidScales[c] = scale;
+		double step = rate / scale;
+		for (int i = start; i < end; ++i) {
+			int w = batchWordIds[i] - 1;
+			if (vector[w] == 0) {
+				centroidSupports[c]++;
+			}
+			vector[w] += step * batchCounts[i];
+		}
+	}
+
+	/**
+	 * @description Recompute the squared tf-idf norm of a
+	 * centroid exactly, removing drift from the updates.
+	 */
+	private void recomputeNorm(int c) {
+		double[] vector = centroidVectors[c];
+		double norm = 0;
+		double weight = 0;
+		for (int w = 0; w < numberOfWords; ++w) {
+			if (vector[w] != 0) {
+				weight = vector[w] * idf[w];
+				norm += weight * weight;
+			}
+		}
+		centroidNorms[c] = centroidScales[c] * centroidScales[c] * norm;
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Assign every document to its closest trained
+	 * centroid, with one more pass over the file if streaming.
+	 */
+	private void assignAll() throws IOException {
+		for (int c = 0; c < k; ++c) {
+			recomputeNorm(c);
+		}
+		this.membership = new int[numberOfDocuments];
+		for (int d = 0; d < numberOfDocuments; ++d) {
+			membership[d] = 1;
+		}
+		if (data != null) {
+			for (int documentId = 1; documentId <= numberOfDocuments; ++documentId) {
+				membership[documentId - 1] = findClosestCentroid(data.getWordIds(), data.getCounts(), data.getRowStart(documentId), data.getRowEnd(documentId),
+						data.getDocumentNorms()[documentId - 1]);
+			}
+		} else {
+			stream.reset();
+			while (stream.nextDocument()) {
+				double documentNorm = Distances.squaredNorm(stream.getWordIds(), stream.getCounts(), 0, stream.getLength(), idf);
+				membership[stream.getDocumentId() - 1] = findClosestCentroid(stream.getWordIds(), stream.getCounts(), 0, stream.getLength(), documentNorm);
+			}
+		}
+	}
+}
@@ -0,0 +1,243 @@
+package clust;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ds.SparseCorpus;
+import util.ResultWriter;
+
+/**
+ * This class runs R independently seeded clusterings of the
+ * same k over one shared corpus and keeps the one with the
+ * lowest objective. The restarts run concurrently on a fixed
+ * thread pool and report their objective after every
+ * iteration. A restart whose objective is clearly worse than
+ * the best any other restart had after as many iterations is
+ * abandoned, so the losing restarts cost only a few
+ * iterations each. A restart that converged counts with its
+ * final objective for all later iterations.
+ *
+ */
+public class MultiRestartClustering {
+
+	private static final int DEFAULT_RESTARTS = 8;
+	private static final double DEFAULT_ABANDON_MARGIN = 0.02;
+	private static final int DEFAULT_MIN_ITERATIONS = 2;
+
+	private SparseCorpus data;
+	private int k;
+	private boolean useAngleDistance;
+	private int restarts = DEFAULT_RESTARTS;
+	private long seed;
+	private Seeding seeding = new KMeansPlusPlusSeeding();
+	private boolean usePruning;
+	private double abandonMargin = DEFAULT_ABANDON_MARGIN;
+	private int minIterations = DEFAULT_MIN_ITERATIONS;
+
+	// Shared between the restarts, guarded by this: the lowest
+	// objective after each iteration and the final objectives
+	// and iteration counts of the restarts that converged.
+	private List<Double> bestObjectives;
+	private List<double[]> finishedObjectives;
+
+	private double[] objectives;
+	private boolean[] abandoned;
+	private int bestRestart;
+
+	/************************* *************************/
+
+	/**
+	 * Constructor
+	 */
+	public MultiRestartClustering(SparseCorpus data, int k, boolean useAngleDistance) {
+		this.data = data;
+		this.k = k;
+		this.useAngleDistance = useAngleDistance;
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Setter functions. Restart r uses the seed
+	 * seed + r, so the seeding should be a random one; the
+	 * default is k-means++. The seeding is shared by all
+	 * restarts, so it must not keep state between calls.
+	 */
+	public void setRestarts(int restarts) { this.restarts = restarts; }
+	public void setSeed(long seed) { this.seed = seed; }
+	public void setSeeding(Seeding seeding) { this.seeding = seeding; }
+	public void setPruning(boolean usePruning) { this.usePruning = usePruning; }
+
+	/**
+	 * @description Abandon a restart once, after at least
+	 * minIterations iterations, its objective exceeds the best
+	 * one after as many iterations by more than the margin, as a
+	 * fraction. A margin of Double.POSITIVE_INFINITY runs every
+	 * restart to convergence. The Jaccard objective need not
+	 * fall from one iteration to the next, so there this is only
+	 * a rough guide.
+	 */
+	public void setAbandonment(double margin, int minIterations) {
+		this.abandonMargin = margin;
+		this.minIterations = minIterations;
+	}
+
+	/**
+	 * @description Getter functions, valid after run. The
+	 * objectives are those of the last iteration of each
+	 * restart, including the abandoned ones.
+	 */
+	public double[] getObjectives() { return this.objectives; }
+	public boolean[] getAbandoned() { return this.abandoned; }
+	public int getBestRestart() { return this.bestRestart; }
+
+	public int getAbandonedRestarts() {
+		int ans = 0;
+		for (int r = 0; r < restarts; ++r) {
+			if (abandoned[r]) {
+				ans++;
+			}
+		}
+		return ans;
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Run the restarts on the given number of
+	 * threads and return the result of the best one.
+	 */
+	public ClusteringResult run(int threads) {
+		this.bestObjectives = new ArrayList<Double>();
+		this.finishedObjectives = new ArrayList<double[]>();
+		this.objectives = new double[restarts];
+		this.abandoned = new boolean[restarts];
+		List<Restart> jobs = new ArrayList<Restart>();
+		for (int r = 0; r < restarts; ++r) {
+			jobs.add(new Restart(r));
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, restarts)));
+		ClusteringResult ans = null;
+		try {
+			List<Future<ClusteringResult>> futures = executor.invokeAll(jobs);
+			for (int r = 0; r < restarts; ++r) {
+				ClusteringResult result = futures.get(r).get();
+				if (result != null && (ans == null || objectives[r] < objectives[bestRestart])) {
+					ans = result;
+					this.bestRestart = r;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw(new RuntimeException("Interrupted while clustering!"));
+		} catch (ExecutionException e) {
+			e.printStackTrace();
+			throw(new RuntimeException("Clustering restart failed!", e.getCause()));
+		} finally {
+			executor.shutdownNow();
+		}
+		return ans;
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Record the objective of a restart after an
+	 * iteration and decide whether to abandon it. The restart
+	 * is compared before its own objective is recorded, so the
+	 * first restart to reach an iteration is never abandoned
+	 * there.
+	 */
+	private synchronized boolean reportIteration(int iteration, double objective) {
+		double best = iteration <= bestObjectives.size() ? bestObjectives.get(iteration - 1) : Double.POSITIVE_INFINITY;
+		for (int i = 0; i < finishedObjectives.size(); ++i) {
+			if (finishedObjectives.get(i)[0] <= iteration) {
+				best = Math.min(best, finishedObjectives.get(i)[1]);
+			}
+		}
+		if (iteration > bestObjectives.size()) {
+			bestObjectives.add(objective);
+		} else if (objective < bestObjectives.get(iteration - 1)) {
+			bestObjectives.set(iteration - 1, objective);
+		}
+		return iteration >= minIterations && objective > best * (1 + abandonMargin);
+	}
+
+	private synchronized void reportConvergence(int iterations, double objective) {
+		finishedObjectives.add(new double[] { iterations, objective });
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description A single quiet restart over the shared
+	 * corpus. Returns null if it was abandoned. It listens to
+	 * its own iterations, which makes the clustering compute the
+	 * objective.
+	 */
+	private class Restart implements Callable<ClusteringResult>, IterationListener {
+
+		private int restart;
+
+		public Restart(int restart) {
+			this.restart = restart;
+		}
+
+		public ClusteringResult call() {
+			long start = System.nanoTime();
+			KMeansClustering km = new KMeansClustering(data, k, useAngleDistance, null);
+			km.setVerbose(false);
+			km.setPruning(usePruning);
+			km.setSeeding(seeding);
+			km.setSeed(seed + restart);
+			km.addIterationListener(this);
+			km.initialise();
+			while (!km.hasConverged()) {
+				km.iterate();
+				if (!km.hasConverged() && reportIteration(km.getIterations(), km.getObjective())) {
+					abandoned[restart] = true;
+					return null;
+				}
+			}
+			reportConvergence(km.getIterations(), km.getObjective());
+			long elapsedMillis = (System.nanoTime() - start) / 1000000;
+			return new ClusteringResult(k, useAngleDistance, seed + restart, km.getIterations(), km.getMembership(), elapsedMillis, km.getOutput(),
+					km.getDistanceEvaluations(), km.getPrunedEvaluations());
+		}
+
+		public void iterationCompleted(IterationMetrics metrics) {
+			objectives[restart] = metrics.getObjective();
+		}
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Cluster a docword file with restarts and
+	 * write the best clusters next to it. Arguments: the docword
+	 * file, k, "angle" or "jaccard", the number of restarts and
+	 * optionally the number of threads.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 4) {
+			System.err.println("Usage: MultiRestartClustering <docword file> <k> <angle|jaccard> <restarts> [threads]");
+			return;
+		}
+		int k = Integer.parseInt(args[1]);
+		int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+		MultiRestartClustering clustering = new MultiRestartClustering(KMeansClustering.readData(args[0], null), k, args[2].equals("angle"));
+		clustering.setRestarts(Integer.parseInt(args[3]));
+		long start = System.nanoTime();
+		ClusteringResult best = clustering.run(threads);
+		System.out.println("Objectives " + Arrays.toString(clustering.getObjectives()) + ", " + clustering.getAbandonedRestarts()
+				+ " restarts abandoned, best restart " + clustering.getBestRestart() + " in " + (System.nanoTime() - start) / 1000000 + " ms");
+		ResultWriter.writeText(best.getMembership(), k, args[0] + ".clusters.txt", false);
+	}
+}
@@ -0,0 +1,93 @@
+package clust;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+import util.SyntheticCorpus;
+
+/**
+ * A reproducible out-of-core run: writes a synthetic docword
+ * file several times larger than the heap, unless it is
+ * already there, and clusters it with OutOfCoreKMeans within
+ * a memory budget. The defaults make a file of about 300 MB
+ * (500000 documents of 50 distinct words on average over
+ * 20000 words) and a corpus cache of the same size next to it,
+ * which run in a 64 MB heap with a 32 MB budget:
+ *
+ *   java -Xmx64m -cp bin clust.OutOfCoreDriver /tmp/synthetic.txt 32
+ *
+ * The run fails unless the file is larger than the heap, and
+ * reports the peak heap use of the JVM, which must stay below
+ * -Xmx for the run to finish at all.
+ *
+ */
+public class OutOfCoreDriver {
+
+	private static final int DEFAULT_DOCUMENTS = 500000;
+	private static final int DEFAULT_WORDS = 20000;
+	private static final int DEFAULT_LENGTH = 50;
+	private static final int DEFAULT_K = 10;
+	private static final long DEFAULT_SEED = 42;
+
+	/************************* *************************/
+
+	/**
+	 * @description Sum of the peak usage of the heap pools, an
+	 * upper bound on the peak heap use.
+	 */
+	private static long peakHeapBytes() {
+		long ans = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				ans += pool.getPeakUsage().getUsed();
+			}
+		}
+		return ans;
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Arguments: the docword file, the memory
+	 * budget in megabytes, and optionally the number of
+	 * documents, the vocabulary size, the mean document length,
+	 * k and "angle" or "jaccard". The file is only written if it
+	 * does not exist, with seed 42, so delete it (and its cache)
+	 * after changing the corpus arguments.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: OutOfCoreDriver <docword file> <memory budget in MB> [documents] [words] [mean length] [k] [angle|jaccard]");
+			return;
+		}
+		File file = new File(args[0]);
+		long budget = Long.parseLong(args[1]) << 20;
+		int numberOfDocuments = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_DOCUMENTS;
+		int numberOfWords = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_WORDS;
+		int meanLength = args.length > 4 ? Integer.parseInt(args[4]) : DEFAULT_LENGTH;
+		int k = args.length > 5 ? Integer.parseInt(args[5]) : DEFAULT_K;
+		boolean useAngleDistance = args.length <= 6 || args[6].equals("angle");
+
+		if (!file.isFile()) {
+			long start = System.nanoTime();
+			SyntheticCorpus.write(args[0], numberOfDocuments, numberOfWords, meanLength, DEFAULT_SEED);
+			System.out.println("Wrote " + (file.length() >> 20) + " MB in " + (System.nanoTime() - start) / 1000000 + " ms");
+		}
+		long maxHeap = Runtime.getRuntime().maxMemory();
+		System.out.printf("Docword file of %d MB, %.1f times the heap of %d MB, budget %d MB%n", file.length() >> 20,
+				(double) file.length() / maxHeap, maxHeap >> 20, budget >> 20);
+		if (file.length() <= maxHeap) {
+			throw(new RuntimeException("The docword file fits in the heap, lower -Xmx or raise the number of documents!"));
+		}
+
+		OutOfCoreKMeans kMeans = new OutOfCoreKMeans(args[0], k, useAngleDistance, budget);
+		kMeans.setVerbose(false);
+		long start = System.nanoTime();
+		kMeans.run();
+		System.out.println(kMeans.getIterations() + " iterations in " + (System.nanoTime() - start) / 1000000 + " ms with blocks of "
+				+ (kMeans.getBlockBytes() >> 10) + " KB, peak heap " + (peakHeapBytes() >> 20) + " MB of at most " + (maxHeap >> 20) + " MB");
+	}
+}
@@ -0,0 +1,410 @@
+package clust;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import ds.Centroid;
+import util.CorpusCache;
+import util.DiskCorpus;
+import util.ResultWriter;
+
+/**
+ * K-means clustering of a corpus that does not fit in the
+ * heap. The docword file is turned into a corpus cache once,
+ * by streaming (see CorpusCache.prepare), and every Lloyd
+ * iteration is one sequential pass over the cache in blocks
+ * of documents: each document is assigned to its closest
+ * centroid and at the same time added to the sums of the next
+ * centroids. Only the centroids, their sums, the idf weights,
+ * the membership arrays and one block live on the heap.
+ *
+ * Seeds, distances, tie-breaking and the convergence rules
+ * are those of KMeansClustering with evenly spaced seeding, so
+ * both give the same clusters on the same corpus with the
+ * same convergence settings. Like KMeansClustering, it runs
+ * until it converges unless an iteration limit is set.
+ *
+ */
+public class OutOfCoreKMeans {
+
+	private static final double ACCEPTANCE_THRESHOLD = 0.8;
+	private static final long MIN_BLOCK_BYTES = 1 << 16;
+
+	private String filepath;
+	private int k;
+	private boolean useAngleDistance;
+	private long memoryBudget;
+	private int maxIterations;
+	private double acceptanceThreshold = ACCEPTANCE_THRESHOLD;
+	private double objectiveTolerance;
+	private double shiftTolerance;
+	private boolean verbose = true;
+	private DiskCorpus corpus;
+
+	private int numberOfDocuments;
+	private int numberOfWords;
+	private double[] idf;
+	private double[] idfSquared;
+
+	// Word-major dense centroids, the k values of word w at
+	// [(w-1)*k, w*k), as in DenseCentroids, and their sums over
+	// the documents assigned in the current pass.
+	private double[] centroids;
+	private double[] centroidNorms;
+	private int[] centroidSupports;
+	private double[] sums;
+	private int[] sizes;
+
+	// The norms and supports of the previous centroids, and the
+	// dot products or intersections with the new ones.
+	private double[] previousNorms;
+	private int[] previousSupports;
+	private double[] shiftProducts;
+
+	private int[] membership;
+	private int[] averageMembership;
+	private int iterations;
+	private int sameDocuments;
+	private double objective;
+	private double previousObjective;
+	private double largestShift;
+	private long blockBytes;
+
+	/************************* *************************/
+
+	/**
+	 * Constructor. The memory budget, in bytes, bounds the heap
+	 * used by the clustering itself; whatever the centroids and
+	 * the membership arrays leave of it goes to the block.
+	 */
+	public OutOfCoreKMeans(String filepath, int k, boolean useAngleDistance, long memoryBudget) {
+		this.filepath = filepath;
+		this.k = k;
+		this.useAngleDistance = useAngleDistance;
+		this.memoryBudget = memoryBudget;
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Getter functions. The membership array holds
+	 * the centroid ID (from 1) of each document, by ID - 1. The
+	 * objective is that of the last iteration, as in
+	 * KMeansClustering.
+	 */
+	public int getIterations() { return this.iterations; }
+	public double getObjective() { return this.objective; }
+	public int[] getMembership() { return this.membership; }
+	public long getBlockBytes() { return this.blockBytes; }
+
+	/**
+	 * @description Setter functions. A limit of 0 iterations,
+	 * the default, runs until convergence.
+	 */
+	public void setMaxIterations(int maxIterations) { this.maxIterations = maxIterations; }
+	public void setVerbose(boolean verbose) { this.verbose = verbose; }
+
+	/**
+	 * @description Set when the clustering has converged, as
+	 * KMeansClustering.setConvergence does: when at least the
+	 * acceptance threshold (as a fraction) of the documents kept
+	 * their cluster, when the objective improved by less than
+	 * the objective tolerance relative to the last iteration, or
+	 * when no centroid moved by more than the shift tolerance. A
+	 * tolerance of 0 disables that criterion, and a threshold
+	 * above 1 disables the first.
+	 */
+	public void setConvergence(double acceptanceThreshold, double objectiveTolerance, double shiftTolerance) {
+		this.acceptanceThreshold = acceptanceThreshold;
+		this.objectiveTolerance = objectiveTolerance;
+		this.shiftTolerance = shiftTolerance;
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Cluster the corpus up to convergence, or for
+	 * at most maxIterations passes if that is set.
+	 */
+	public void run() throws IOException {
+		this.corpus = new DiskCorpus(CorpusCache.prepare(filepath));
+		try {
+			this.numberOfDocuments = corpus.getNumberOfDocuments();
+			this.numberOfWords = corpus.getNumberOfWords();
+			if (k < 1 || k > numberOfDocuments) {
+				throw(new RuntimeException("k must be between 1 and the number of documents!"));
+			}
+			// The dense centroids are indexed by int.
+			if ((long) numberOfWords * k > Integer.MAX_VALUE) {
+				throw(new RuntimeException("Dense centroids of " + numberOfWords + " words by " + k + " clusters exceed the largest array!"));
+			}
+			this.blockBytes = memoryBudget - fixedBytes();
+			if (blockBytes < MIN_BLOCK_BYTES) {
+				throw(new RuntimeException("A memory budget of " + memoryBudget + " bytes leaves no room for a block of documents!"));
+			}
+			corpus.setBlockBytes(blockBytes);
+			this.idf = corpus.getIdf();
+			this.idfSquared = new double[numberOfWords];
+			for (int w = 0; w < numberOfWords; ++w) {
+				idfSquared[w] = idf[w] * idf[w];
+			}
+			this.centroids = new double[numberOfWords * k];
+			this.centroidNorms = new double[k];
+			this.centroidSupports = new int[k];
+			this.sums = new double[numberOfWords * k];
+			this.sizes = new int[k];
+			this.previousNorms = new double[k];
+			this.previousSupports = new int[k];
+			this.shiftProducts = new double[k];
+			this.membership = new int[numberOfDocuments];
+			this.averageMembership = useAngleDistance ? null : new int[numberOfDocuments];
+
+			this.iterations = 0;
+			this.objective = Double.NaN;
+			initialiseCentroids();
+			while ((maxIterations <= 0 || iterations < maxIterations) && !hasConverged()) {
+				iterate();
+			}
+		} finally {
+			corpus.close();
+		}
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Heap needed besides the block: the centroids
+	 * and their sums, the idf weights and document frequencies,
+	 * the per-centroid statistics and the membership arrays.
+	 */
+	private long fixedBytes() {
+		long ans = 2 * 8L * numberOfWords * k + (8 + 8 + 4) * (long) numberOfWords + (8 + 4 + 4 + 8 + 4 + 8) * (long) k;
+		return ans + 4L * numberOfDocuments * (useAngleDistance ? 1 : 2);
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description One pass to pick up the seed documents,
+	 * equally spaced by ID as in EvenlySpacedSeeding.
+	 */
+	private void initialiseCentroids() throws IOException {
+		int spacing = numberOfDocuments / k;
+		corpus.reset();
+		while (corpus.nextBlock()) {
+			int[] rowPtr = corpus.getRowPtr();
+			for (int j = 0; j < corpus.getBlockLength(); ++j) {
+				int documentId = corpus.getBlockStart() + j;
+				if (documentId % spacing != 0 || documentId / spacing > k) {
+					continue;
+				}
+				int c = documentId / spacing - 1;
+				for (int i = rowPtr[j]; i < rowPtr[j + 1]; ++i) {
+					sums[(corpus.getWordIds()[i] - 1) * k + c] = corpus.getCounts()[i];
+				}
+				sizes[c] = 1;
+			}
+		}
+		setCentroidsFromSums();
+		print("Initialized " + k + " means with blocks of " + blockBytes + " bytes.");
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description One Lloyd iteration as a single pass: assign
+	 * every document with the current centroids while summing it
+	 * into the next ones.
+	 */
+	private void iterate() throws IOException {
+		int iteration = ++this.iterations;
+		Arrays.fill(sums, 0);
+		Arrays.fill(sizes, 0);
+		double[] distances = new double[k];
+		int changed = 0;
+		int same = 0;
+		double sumOfSquares = 0;
+		corpus.reset();
+		while (corpus.nextBlock()) {
+			int[] rowPtr = corpus.getRowPtr();
+			int[] wordIds = corpus.getWordIds();
+			double[] counts = corpus.getCounts();
+			for (int j = 0; j < corpus.getBlockLength(); ++j) {
+				int d = corpus.getBlockStart() + j - 1;
+				int start = rowPtr[j];
+				int end = rowPtr[j + 1];
+				if (useAngleDistance) {
+					double documentNorm = Distances.squaredNorm(wordIds, counts, start, end, idf);
+					Distances.anglesToAll(wordIds, counts, start, end, documentNorm, centroids, k, idfSquared, centroidNorms, distances);
+				} else {
+					Distances.jaccardsToAll(wordIds, start, end, centroids, k, centroidSupports, distances);
+				}
+
+				// Ties go to the lowest centroid ID.
+				double minDistance = Integer.MAX_VALUE;
+				int closest = 0;
+				for (int c = 0; c < k; ++c) {
+					if (minDistance > distances[c]) {
+						closest = c;
+						minDistance = distances[c];
+					}
+				}
+				// Undefined distances never become the minimum.
+				if (minDistance < Integer.MAX_VALUE) {
+					sumOfSquares += minDistance * minDistance;
+				}
+
+				// Jaccard documents also keep their cluster if their
+				// average membership is unchanged.
+				boolean kept = membership[d] == closest + 1;
+				if (!useAngleDistance) {
+					int average = (averageMembership[d] * (iteration - 1) + closest + 1) / iteration;
+					kept |= averageMembership[d] == average;
+					averageMembership[d] = average;
+				}
+				if (membership[d] != closest + 1) {
+					changed++;
+				}
+				if (kept) {
+					same++;
+				}
+				membership[d] = closest + 1;
+				for (int i = start; i < end; ++i) {
+					sums[(wordIds[i] - 1) * k + closest] += counts[i];
+				}
+				sizes[closest]++;
+			}
+		}
+		this.sameDocuments = same;
+		this.previousObjective = objective;
+		this.objective = sumOfSquares;
+		setCentroidsFromSums();
+		print("*** Iteration " + iteration + " *** - " + changed + " documents changed cluster, sizes " + Arrays.toString(sizes));
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Set the centroids to the sums divided by the
+	 * cluster sizes, with norms and supports, summed in word
+	 * order like the sparse centroids of KMeansClustering. For
+	 * the Jaccard distance, the matrix holds 1 for every word in
+	 * the support. On the way, record how far the centroids
+	 * moved: the angle between the old and new centroid, or the
+	 * Jaccard distance between their supports.
+	 */
+	private void setCentroidsFromSums() {
+		System.arraycopy(centroidNorms, 0, previousNorms, 0, k);
+		System.arraycopy(centroidSupports, 0, previousSupports, 0, k);
+		Arrays.fill(centroidNorms, 0);
+		Arrays.fill(centroidSupports, 0);
+		Arrays.fill(shiftProducts, 0);
+		for (int w = 0; w < numberOfWords; ++w) {
+			int base = w * k;
+			for (int c = 0; c < k; ++c) {
+				double previous = centroids[base + c];
+				double sum = sums[base + c];
+				if (sum == 0) {
+					centroids[base + c] = 0;
+					continue;
+				}
+				double weight = sum / sizes[c];
+				double tfIdf = weight * idf[w];
+				centroidNorms[c] += tfIdf * tfIdf;
+				centroidSupports[c]++;
+				if (previous != 0) {
+					shiftProducts[c] += useAngleDistance ? previous * weight * idfSquared[w] : 1;
+				}
+				centroids[base + c] = useAngleDistance ? weight : 1;
+			}
+		}
+
+		// A NaN shift, of a centroid with norm 0, counts as the largest.
+		this.largestShift = 0;
+		for (int c = 0; c < k; ++c) {
+			double shift;
+			if (useAngleDistance) {
+				shift = Math.acos(Math.min(1, shiftProducts[c] / Math.sqrt(previousNorms[c] * centroidNorms[c])));
+			} else {
+				double union = previousSupports[c] + centroidSupports[c] - shiftProducts[c];
+				shift = (union - shiftProducts[c]) / union;
+			}
+			if (Double.isNaN(shift) || shift > largestShift) {
+				largestShift = shift;
+			}
+		}
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Check the convergence rules set by
+	 * setConvergence, as in KMeansClustering.
+	 */
+	private boolean hasConverged() {
+		if (iterations == 0) {
+			return false;
+		}
+		if (sameDocuments >= acceptanceThreshold * numberOfDocuments) {
+			return true;
+		}
+		if (objectiveTolerance > 0 && iterations > 1 && previousObjective - objective < objectiveTolerance * previousObjective) {
+			return true;
+		}
+		return shiftTolerance > 0 && largestShift <= shiftTolerance;
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Return the centroids as sparse Centroid
+	 * objects. For the Jaccard distance the weights are 1.
+	 */
+	public List<Centroid> getCentroids() {
+		List<Centroid> ans = new ArrayList<Centroid>();
+		for (int c = 0; c < k; ++c) {
+			int[] wordIds = new int[centroidSupports[c]];
+			double[] weights = new double[centroidSupports[c]];
+			int j = 0;
+			for (int w = 0; w < numberOfWords && j < wordIds.length; ++w) {
+				if (centroids[w * k + c] != 0) {
+					wordIds[j] = w + 1;
+					weights[j++] = centroids[w * k + c];
+				}
+			}
+			ans.add(new Centroid(c + 1, wordIds, weights));
+		}
+		return ans;
+	}
+
+	private void print(String line) {
+		if (verbose) {
+			System.out.println(line);
+		}
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Cluster a docword file within a memory
+	 * budget and write the clusters next to it. Arguments: the
+	 * docword file, k, "angle" or "jaccard", and the budget in
+	 * megabytes.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 4) {
+			System.err.println("Usage: OutOfCoreKMeans <docword file> <k> <angle|jaccard> <memory budget in MB>");
+			return;
+		}
+		int k = Integer.parseInt(args[1]);
+		OutOfCoreKMeans kMeans = new OutOfCoreKMeans(args[0], k, args[2].equals("angle"), Long.parseLong(args[3]) << 20);
+		long start = System.nanoTime();
+		kMeans.run();
+		Runtime runtime = Runtime.getRuntime();
+		System.out.println(kMeans.getIterations() + " iterations in " + (System.nanoTime() - start) / 1000000 + " ms, heap in use "
+				+ ((runtime.totalMemory() - runtime.freeMemory()) >> 20) + " MB of at most " + (runtime.maxMemory() >> 20) + " MB");
+		ResultWriter.writeText(kMeans.getMembership(), k, args[0] + ".clusters.txt", false);
+	}
+}
@@ -0,0 +1,11 @@
+package clust;
+
+/**
+ * Precision of the weights the angle kernel reads: the double
+ * counts of the corpus, or the unit tf-idf weights of
+ * CompactCentroids as floats or quantised to 8 bits.
+ *
+ */
+public enum Precision {
+	DOUBLE, FLOAT, QUANTISED
+}
@@ -0,0 +1,21 @@
+package clust;
+
+import java.util.concurrent.ForkJoinPool;
+
+import ds.SparseCorpus;
+
+/**
+ * A strategy for choosing the documents that the k centroids
+ * start from. Implementations must return the same seeds for
+ * the same corpus, k, metric and random seed, whether or not
+ * a pool is given.
+ *
+ */
+public interface Seeding {
+
+	/**
+	 * @description Choose k documents, returned by ID, to copy
+	 * into the initial centroids. The pool may be null.
+	 */
+	public int[] chooseSeeds(SparseCorpus data, int k, boolean useAngleDistance, long seed, ForkJoinPool pool);
+}
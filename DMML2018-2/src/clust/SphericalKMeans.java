@@ -0,0 +1,294 @@
+package clust;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import ds.Centroid;
+import ds.SparseCorpus;
+
+/**
+ * Spherical k-means: k-means with the angle distance on unit
+ * length tf-idf vectors. Documents are normalised once, and
+ * after every update each centroid is scaled to unit length,
+ * so the closest centroid is simply the one with the largest
+ * dot product; no acos, sqrt or idf weighting is left in the
+ * assignment step.
+ *
+ * The direction of a centroid is that of the sum of the tf-idf
+ * vectors of its documents, which is the direction of the
+ * mean-count centroid of KMeansClustering under the angle
+ * distance. With the same seeding and convergence rule, both
+ * make the same assignments, up to rounding on near ties.
+ * The mean counts are kept by a CentroidUpdater, so only the
+ * centroids of clusters that changed are renormalised.
+ *
+ */
+public class SphericalKMeans {
+
+	private static final double ACCEPTANCE_THRESHOLD = 0.8;
+	private static final int ASSIGNMENT_CHUNK_SIZE = 64;
+	// 64 MB of doubles. Unlike a merge with a long sparse
+	// centroid, a gather of k contiguous directions per word
+	// stays cheap well beyond the cache.
+	private static final long DENSE_LIMIT = 1L << 23;
+
+	private SparseCorpus data;
+	private int k;
+	private ForkJoinPool pool;
+	private Seeding seeding = new EvenlySpacedSeeding();
+	private long seed;
+	private double acceptanceThreshold = ACCEPTANCE_THRESHOLD;
+
+	private int numberOfDocuments;
+	private int numberOfWords;
+	private double[] idf;
+	private double[] unitWeights;
+
+	// Mean-count centroids, as in KMeansClustering, and their
+	// unit tf-idf directions: word-major dense as in
+	// DenseCentroids up to DENSE_LIMIT entries, sparse otherwise. Centroids
+	// without a direction are never the closest.
+	private List<Centroid> kMeans;
+	private CentroidUpdater centroidUpdater;
+	private boolean[] updatedCentroids;
+	private double[] denseCentroids;
+	private int[][] centroidWords;
+	private double[][] centroidWeights;
+	private boolean[] emptyCentroids;
+
+	private int[] membership;
+	private int[] chunkSame;
+	private int sameDocuments;
+	private int iterations;
+
+	/************************* *************************/
+
+	/**
+	 * Constructor. The pool may be null, in which case all work
+	 * runs on the calling thread.
+	 */
+	public SphericalKMeans(SparseCorpus data, int k, ForkJoinPool pool) {
+		this.data = data;
+		this.k = k;
+		this.pool = pool;
+		this.numberOfDocuments = data.getNumberOfDocuments();
+		this.numberOfWords = data.getNumberOfWords();
+		this.idf = data.getIdf();
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Getter functions. The membership array holds
+	 * the centroid ID (from 1) of each document, by ID - 1; the
+	 * centroids hold mean counts, as in KMeansClustering.
+	 */
+	public int getIterations() { return this.iterations; }
+	public int[] getMembership() { return this.membership.clone(); }
+	public List<Centroid> getCentroids() { return this.kMeans; }
+
+	/**
+	 * @description Setter functions. The acceptance threshold is
+	 * the fraction of documents that must keep their cluster for
+	 * the run to have converged.
+	 */
+	public void setSeeding(Seeding seeding) { this.seeding = seeding; }
+	public void setSeed(long seed) { this.seed = seed; }
+	public void setAcceptanceThreshold(double acceptanceThreshold) { this.acceptanceThreshold = acceptanceThreshold; }
+
+	/************************* *************************/
+
+	/**
+	 * @description Run up to convergence.
+	 */
+	public void run() {
+		initialise();
+		while (!hasConverged()) {
+			iterate();
+		}
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Normalise the documents and set the initial
+	 * centroids to the seed documents.
+	 */
+	public void initialise() {
+		this.iterations = 0;
+		this.membership = new int[numberOfDocuments];
+		this.chunkSame = new int[(numberOfDocuments + ASSIGNMENT_CHUNK_SIZE - 1) / ASSIGNMENT_CHUNK_SIZE];
+		this.centroidUpdater = new CentroidUpdater(data, pool);
+		this.updatedCentroids = new boolean[k];
+		this.emptyCentroids = new boolean[k];
+		this.denseCentroids = (long) numberOfWords * k <= DENSE_LIMIT ? new double[numberOfWords * k] : null;
+		this.centroidWords = new int[k][];
+		this.centroidWeights = new double[k][];
+
+		// Unit tf-idf weights of every entry; a document of norm 0
+		// has no direction and keeps weights of 0.
+		int[] wordIds = data.getWordIds();
+		double[] counts = data.getCounts();
+		double[] documentNorms = data.getDocumentNorms();
+		this.unitWeights = new double[counts.length];
+		for (int d = 0; d < numberOfDocuments; ++d) {
+			if (documentNorms[d] == 0) {
+				continue;
+			}
+			double inverseLength = 1 / Math.sqrt(documentNorms[d]);
+			for (int i = data.getRowStart(d + 1); i < data.getRowEnd(d + 1); ++i) {
+				unitWeights[i] = counts[i]*idf[wordIds[i] - 1]*inverseLength;
+			}
+		}
+
+		int[] seeds = seeding.chooseSeeds(data, k, true, seed, pool);
+		this.kMeans = new ArrayList<Centroid>();
+		for (int i = 1; i <= k; ++i) {
+			kMeans.add(new Centroid(i, data.getDocument(seeds[i - 1])));
+			setDirection(i - 1);
+		}
+	}
+
+	/**
+	 * @description One iteration: assign every document to the
+	 * centroid with the largest dot product, then update the
+	 * centroids of the clusters that changed.
+	 */
+	public void iterate() {
+		++this.iterations;
+		if (pool != null) {
+			pool.invoke(new AssignmentTask(0, chunkSame.length));
+		} else {
+			for (int chunk = 0; chunk < chunkSame.length; ++chunk) {
+				assignChunk(chunk);
+			}
+		}
+		this.sameDocuments = 0;
+		for (int chunk = 0; chunk < chunkSame.length; ++chunk) {
+			sameDocuments += chunkSame[chunk];
+		}
+		centroidUpdater.update(kMeans, membership, updatedCentroids);
+		for (int c = 0; c < k; ++c) {
+			if (updatedCentroids[c]) {
+				setDirection(c);
+			}
+		}
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Converged once enough documents kept their
+	 * cluster, as in KMeansClustering.
+	 */
+	private boolean hasConverged() {
+		return iterations > 0 && sameDocuments >= acceptanceThreshold * numberOfDocuments;
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Set the unit direction of a centroid from its
+	 * mean counts: weight each word by its idf and scale to
+	 * length 1.
+	 */
+	private void setDirection(int c) {
+		int[] wordIds = kMeans.get(c).getWordIds();
+		double[] weights = kMeans.get(c).getWeights();
+		double[] direction = new double[wordIds.length];
+		double norm = 0;
+		for (int i = 0; i < wordIds.length; ++i) {
+			direction[i] = weights[i]*idf[wordIds[i] - 1];
+			norm += direction[i]*direction[i];
+		}
+		emptyCentroids[c] = norm == 0;
+		double inverseLength = norm == 0 ? 0 : 1 / Math.sqrt(norm);
+		for (int i = 0; i < direction.length; ++i) {
+			direction[i] *= inverseLength;
+		}
+		if (denseCentroids != null) {
+			for (int w = 0; w < numberOfWords; ++w) {
+				denseCentroids[w * k + c] = 0;
+			}
+			for (int i = 0; i < wordIds.length; ++i) {
+				denseCentroids[(wordIds[i] - 1) * k + c] = direction[i];
+			}
+		} else {
+			centroidWords[c] = wordIds;
+			centroidWeights[c] = direction;
+		}
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Assign the documents of one chunk and count
+	 * how many kept their cluster. Ties go to the lowest
+	 * centroid ID; a document without a direction, or without a
+	 * centroid to go to, goes to centroid 1.
+	 */
+	private void assignChunk(int chunk) {
+		int from = chunk * ASSIGNMENT_CHUNK_SIZE;
+		int to = Math.min(from + ASSIGNMENT_CHUNK_SIZE, numberOfDocuments);
+		int[] wordIds = data.getWordIds();
+		int[] rowPtr = data.getRowPtr();
+		double[] documentNorms = data.getDocumentNorms();
+		double[] dots = new double[k];
+		int same = 0;
+		for (int d = from; d < to; ++d) {
+			int closest = 0;
+			if (documentNorms[d] != 0) {
+				if (denseCentroids != null) {
+					Distances.dotsToAll(wordIds, unitWeights, rowPtr[d], rowPtr[d + 1], denseCentroids, k, dots);
+				} else {
+					for (int c = 0; c < k; ++c) {
+						dots[c] = Distances.dot(wordIds, unitWeights, rowPtr[d], rowPtr[d + 1], centroidWords[c], centroidWeights[c]);
+					}
+				}
+				double maxDot = Double.NEGATIVE_INFINITY;
+				for (int c = 0; c < k; ++c) {
+					if (!emptyCentroids[c] && dots[c] > maxDot) {
+						closest = c;
+						maxDot = dots[c];
+					}
+				}
+			}
+			if (membership[d] == closest + 1) {
+				same++;
+			}
+			membership[d] = closest + 1;
+		}
+		chunkSame[chunk] = same;
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Assigns the chunks [from, to) by splitting
+	 * the range in halves down to single chunks.
+	 */
+	@SuppressWarnings("serial")
+	private class AssignmentTask extends RecursiveAction {
+
+		private int from;
+		private int to;
+
+		public AssignmentTask(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		protected void compute() {
+			if (to - from <= 1) {
+				for (int chunk = from; chunk < to; ++chunk) {
+					assignChunk(chunk);
+				}
+			} else {
+				int mid = (from + to) >>> 1;
+				invokeAll(new AssignmentTask(from, mid), new AssignmentTask(mid, to));
+			}
+		}
+	}
+}
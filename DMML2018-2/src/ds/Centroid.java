@@ -1,63 +1,91 @@
 package ds;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
  * @author sahil
  * This class provides a structure to store the centroid
  * of a cluster of data points along with an ID for
- * distinguishing between centroids.
+ * distinguishing between centroids. The nonzero coordinates
+ * are kept as two parallel arrays sorted by word ID.
  *
  */
 public class Centroid {
 
 	private int id;
-	private List<Wount> coordinates;
-	
+	private int[] wordIds;
+	private double[] weights;
+
 	/************************* *************************/
-	
+
 	/**
 	 * Constructor
 	 */
 	public Centroid(int id, List<Wount> coordinates) {
 		this.id = id;
-		this.coordinates = coordinates;
+		setCoordinates(coordinates);
+	}
+
+	public Centroid(int id, int[] wordIds, double[] weights) {
+		this.id = id;
+		setCoordinates(wordIds, weights);
 	}
-	
+
 	/************************* *************************/
-	
+
 	/**
-	 * @description Getter functions.
+	 * @description Getter functions. getCoordinates builds a
+	 * fresh list; the array getters return the backing arrays.
 	 */
 	public int getId() { return this.id; }
-	public List<Wount> getCoordinates() { return this.coordinates; }
-	
+	public int[] getWordIds() { return this.wordIds; }
+	public double[] getWeights() { return this.weights; }
+	public List<Wount> getCoordinates() {
+		List<Wount> ans = new ArrayList<Wount>(wordIds.length);
+		for (int i = 0; i < wordIds.length; ++i) {
+			ans.add(new Wount(wordIds[i], weights[i]));
+		}
+		return ans;
+	}
+
 	/************************* *************************/
-	
+
 	/**
 	 * @description Setter functions.
 	 */
-	public void setCoordinates(List<Wount> coordinates) { this.coordinates = coordinates; }
-	
+	public void setCoordinates(List<Wount> coordinates) {
+		this.wordIds = new int[coordinates.size()];
+		this.weights = new double[coordinates.size()];
+		for (int i = 0; i < coordinates.size(); ++i) {
+			wordIds[i] = coordinates.get(i).getId();
+			weights[i] = coordinates.get(i).getCount();
+		}
+	}
+	public void setCoordinates(int[] wordIds, double[] weights) {
+		this.wordIds = wordIds;
+		this.weights = weights;
+	}
+
 	/************************* *************************/
-		
+
 	/**
 	 * @description divides the coordinates uniformly by the given constant
 	 */
 	public void divideCoordinates(double constant) {
-		for (int i = 0; i < this.coordinates.size(); ++i) {
-			coordinates.get(i).setCount(coordinates.get(i).getCount() / constant);
+		for (int i = 0; i < this.weights.length; ++i) {
+			weights[i] = weights[i] / constant;
 		}
 	}
-	
+
 	/**
 	 * @description returns the number of nonzero wounts
 	 */
 	public int getCoordinatesSize() {
-		return this.coordinates.size();
+		return this.wordIds.length;
 	}
-	
+
 	public String toString() {
-		return (this.id+": "+this.coordinates);
+		return (this.id+": "+this.getCoordinates());
 	}
 }
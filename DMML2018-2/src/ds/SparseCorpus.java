@@ -0,0 +1,202 @@
+package ds;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class stores a bag-of-words corpus in compressed
+ * sparse row form. The nonzero entries of document d
+ * (1-indexed) are at positions rowPtr[d-1] to rowPtr[d]-1
+ * of the wordIds and counts arrays, sorted by word ID.
+ * A corpus is never modified after construction, so one
+ * instance can be shared by concurrent clustering runs.
+ *
+ * Word counts are whole numbers in docword files, so a corpus
+ * can also keep them as shorts, or ints where a count needs
+ * them, instead of doubles (see compactCounts). Such a corpus
+ * has no double counts array; getCount reads either form.
+ *
+ */
+public class SparseCorpus {
+
+	private final int numberOfDocuments;
+	private final int numberOfWords;
+	private final int[] rowPtr;
+	private final int[] wordIds;
+	private final double[] counts;
+	private final short[] shortCounts;
+	private final int[] intCounts;
+	private final int[] documentFrequencies;
+	private final double[] idf;
+	private final double[] documentNorms;
+
+	/************************* *************************/
+
+	/**
+	 * Constructor
+	 */
+	public SparseCorpus(int numberOfDocuments, int numberOfWords, int[] rowPtr, int[] wordIds, double[] counts, int[] documentFrequencies) {
+		this.numberOfDocuments = numberOfDocuments;
+		this.numberOfWords = numberOfWords;
+		this.rowPtr = rowPtr;
+		this.wordIds = wordIds;
+		this.counts = counts;
+		this.shortCounts = null;
+		this.intCounts = null;
+		this.documentFrequencies = documentFrequencies;
+		this.idf = computeIdf();
+		this.documentNorms = computeDocumentNorms();
+	}
+
+	/**
+	 * Constructor. The same corpus with its counts stored as
+	 * shorts or ints, sharing all other arrays.
+	 */
+	private SparseCorpus(SparseCorpus corpus, short[] shortCounts, int[] intCounts) {
+		this.numberOfDocuments = corpus.numberOfDocuments;
+		this.numberOfWords = corpus.numberOfWords;
+		this.rowPtr = corpus.rowPtr;
+		this.wordIds = corpus.wordIds;
+		this.counts = null;
+		this.shortCounts = shortCounts;
+		this.intCounts = intCounts;
+		this.documentFrequencies = corpus.documentFrequencies;
+		this.idf = corpus.idf;
+		this.documentNorms = corpus.documentNorms;
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Compute the inverse document frequency of
+	 * every word, log(D) - log(df). Words that never occur get
+	 * an infinite weight, but they never appear in any vector.
+	 */
+	private double[] computeIdf() {
+		double[] ans = new double[numberOfWords];
+		for(int i=0;i<numberOfWords;++i) {
+			ans[i] = Math.log(this.numberOfDocuments) - Math.log(documentFrequencies[i]);
+		}
+		return ans;
+	}
+
+	/**
+	 * @description Compute the squared tf-idf norm of every
+	 * document.
+	 */
+	private double[] computeDocumentNorms() {
+		double[] ans = new double[numberOfDocuments];
+		double weight = 0;
+		for(int d=0;d<numberOfDocuments;++d) {
+			double norm = 0;
+			for(int i=rowPtr[d];i<rowPtr[d+1];++i) {
+				weight = counts[i]*idf[wordIds[i]-1];
+				norm += weight*weight;
+			}
+			ans[d] = norm;
+		}
+		return ans;
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Getter functions. The arrays are returned
+	 * as is, so that distance routines can stream through them
+	 * without copying; callers must not modify them. The
+	 * counts array is null if the counts are compact.
+	 */
+	public int getNumberOfDocuments() { return this.numberOfDocuments; }
+	public int getNumberOfWords() { return this.numberOfWords; }
+	public int getNumberOfNonzeros() { return this.rowPtr[numberOfDocuments]; }
+	public int[] getRowPtr() { return this.rowPtr; }
+	public int[] getWordIds() { return this.wordIds; }
+	public double[] getCounts() { return this.counts; }
+	public int[] getDocumentFrequencies() { return this.documentFrequencies; }
+	public double[] getIdf() { return this.idf; }
+	public double[] getDocumentNorms() { return this.documentNorms; }
+
+	/************************* *************************/
+
+	/**
+	 * @description Index of the first nonzero entry of the
+	 * given document, and one past its last entry.
+	 */
+	public int getRowStart(int documentId) { return this.rowPtr[documentId-1]; }
+	public int getRowEnd(int documentId) { return this.rowPtr[documentId]; }
+
+	/**
+	 * @description The count of the nonzero entry at the given
+	 * index, however it is stored.
+	 */
+	public double getCount(int i) {
+		if (counts != null) {
+			return counts[i];
+		}
+		return shortCounts != null ? shortCounts[i] : intCounts[i];
+	}
+
+	/**
+	 * @description returns the number of nonzero wounts in
+	 * the given document
+	 */
+	public int getDocumentLength(int documentId) {
+		return this.rowPtr[documentId] - this.rowPtr[documentId-1];
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Copies a document out as a fresh list of
+	 * wounts, e.g. for seeding a centroid.
+	 */
+	public List<Wount> getDocument(int documentId) {
+		List<Wount> ans = new ArrayList<Wount>(getDocumentLength(documentId));
+		for (int i = rowPtr[documentId-1]; i < rowPtr[documentId]; ++i) {
+			ans.add(new Wount(wordIds[i], getCount(i)));
+		}
+		return ans;
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Return this corpus with its counts stored as
+	 * shorts, or as ints if some count does not fit in a short,
+	 * a quarter or half of the bytes of doubles. Every other
+	 * array is shared, so once this corpus is dropped only the
+	 * compact counts are left. Returns this corpus if its counts
+	 * are already compact, or are not all whole numbers that fit
+	 * in an int. Only code that reads counts through getCount
+	 * can use the result, such as KMeansClustering with reduced
+	 * precision.
+	 */
+	public SparseCorpus compactCounts() {
+		if (counts == null) {
+			return this;
+		}
+		boolean fitsShort = true;
+		for (int i = 0; i < counts.length; ++i) {
+			if (counts[i] != Math.rint(counts[i]) || counts[i] < Integer.MIN_VALUE || counts[i] > Integer.MAX_VALUE) {
+				return this;
+			}
+			fitsShort &= counts[i] >= Short.MIN_VALUE && counts[i] <= Short.MAX_VALUE;
+		}
+		if (fitsShort) {
+			short[] ans = new short[counts.length];
+			for (int i = 0; i < counts.length; ++i) {
+				ans[i] = (short) counts[i];
+			}
+			return new SparseCorpus(this, ans, null);
+		}
+		int[] ans = new int[counts.length];
+		for (int i = 0; i < counts.length; ++i) {
+			ans[i] = (int) counts[i];
+		}
+		return new SparseCorpus(this, null, ans);
+	}
+
+	public String toString() {
+		return "SparseCorpus(D=" + numberOfDocuments + ", W=" + numberOfWords + ", NNZ=" + getNumberOfNonzeros() + ")";
+	}
+}
@@ -0,0 +1,118 @@
+package clust;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import ds.Centroid;
+import ds.SparseCorpus;
+import util.SyntheticCorpus;
+
+/**
+ * Regression test of the reduced precision modes against the
+ * double precision path. A synthetic corpus is clustered with
+ * the angle distance in double precision, and every document
+ * is then scored against the final centroids in each mode. A
+ * document may only go to another centroid than in double
+ * precision if that centroid is at most the tolerance of the
+ * mode further away, in exact angle, and no angle may be off
+ * by more than the tolerance either. With 20 clusters over
+ * 500 words the centroids are stored as a dense matrix, with
+ * 10 over 110000 words as postings; on both corpora the
+ * quantised mode moves a document.
+ *
+ */
+public class CompactCentroidsTest {
+
+	private static final int DOCUMENTS = 2000;
+	private static final int LENGTH = 10;
+	private static final long SEED = 42;
+	private static final double FLOAT_TOLERANCE = 1e-5;
+	private static final double QUANTISED_TOLERANCE = 5e-3;
+
+	/************************* *************************/
+
+	@Test
+	public void floatDenseDriftWithinTolerance() {
+		assertDriftWithin(500, 20, Precision.FLOAT, FLOAT_TOLERANCE);
+	}
+
+	@Test
+	public void quantisedDenseDriftWithinTolerance() {
+		assertDriftWithin(500, 20, Precision.QUANTISED, QUANTISED_TOLERANCE);
+	}
+
+	@Test
+	public void floatPostingsDriftWithinTolerance() {
+		assertDriftWithin(110000, 10, Precision.FLOAT, FLOAT_TOLERANCE);
+	}
+
+	@Test
+	public void quantisedPostingsDriftWithinTolerance() {
+		assertDriftWithin(110000, 10, Precision.QUANTISED, QUANTISED_TOLERANCE);
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Fail if an angle is off by more than the
+	 * tolerance, or if a document goes to a centroid more than
+	 * the tolerance further away than its closest one in double
+	 * precision.
+	 */
+	private static void assertDriftWithin(int numberOfWords, int k, Precision precision, double tolerance) {
+		SparseCorpus data = SyntheticCorpus.generate(DOCUMENTS, numberOfWords, LENGTH, SEED);
+		KMeansClustering exact = new KMeansClustering(data, k, true, null);
+		exact.setVerbose(false);
+		exact.run();
+		List<Centroid> kMeans = exact.getCentroids();
+		double[] centroidNorms = new double[k];
+		for (int c = 0; c < k; ++c) {
+			int[] wordIds = kMeans.get(c).getWordIds();
+			centroidNorms[c] = Distances.squaredNorm(wordIds, kMeans.get(c).getWeights(), 0, wordIds.length, data.getIdf());
+		}
+		InvertedCentroids reference = new InvertedCentroids(data, k, true);
+		reference.setCentroids(kMeans, centroidNorms);
+		CompactCentroids compact = new CompactCentroids(data.compactCounts(), k, precision);
+		compact.setCentroids(kMeans, centroidNorms);
+
+		double[] exactDistances = new double[k];
+		double[] compactDistances = new double[k];
+		double largestError = 0;
+		double largestExcess = 0;
+		for (int d = 1; d <= data.getNumberOfDocuments(); ++d) {
+			reference.distances(d, exactDistances);
+			compact.distances(d, compactDistances);
+			int exactClosest = closest(exactDistances);
+			int compactClosest = closest(compactDistances);
+			for (int c = 0; c < k; ++c) {
+				if (!Double.isNaN(exactDistances[c])) {
+					largestError = Math.max(largestError, Math.abs(compactDistances[c] - exactDistances[c]));
+				}
+			}
+			if (compactClosest != exactClosest) {
+				largestExcess = Math.max(largestExcess, exactDistances[compactClosest] - exactDistances[exactClosest]);
+			}
+		}
+		assertTrue(largestError <= tolerance, precision + " angle error " + largestError + " beyond " + tolerance);
+		assertTrue(largestExcess <= tolerance, precision + " excess " + largestExcess + " beyond " + tolerance);
+	}
+
+	/**
+	 * @description Index of the smallest distance, ties to the
+	 * lowest index and NaN never the smallest.
+	 */
+	private static int closest(double[] distances) {
+		double minDistance = Integer.MAX_VALUE;
+		int ans = 0;
+		for (int c = 0; c < distances.length; ++c) {
+			if (minDistance > distances[c]) {
+				ans = c;
+				minDistance = distances[c];
+			}
+		}
+		return ans;
+	}
+}
@@ -0,0 +1,42 @@
+package util;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Reads the per-thread allocation counters of HotSpot JVMs.
+ * Other JVMs may not keep them, in which case every count
+ * is -1.
+ *
+ */
+public class AllocationCounter {
+
+	/************************* *************************/
+
+	/**
+	 * @description Bytes allocated so far by the calling thread,
+	 * or by all live threads, e.g. to include the work of a
+	 * fork/join pool. Returns -1 if the JVM does not count them.
+	 */
+	public static long allocatedBytes(boolean allThreads) {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+			return -1;
+		}
+		com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean) bean;
+		if (!hotspot.isThreadAllocatedMemorySupported() || !hotspot.isThreadAllocatedMemoryEnabled()) {
+			return -1;
+		}
+		if (!allThreads) {
+			return hotspot.getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		long[] allocated = hotspot.getThreadAllocatedBytes(bean.getAllThreadIds());
+		long ans = 0;
+		for (int i = 0; i < allocated.length; ++i) {
+			if (allocated[i] > 0) {
+				ans += allocated[i];
+			}
+		}
+		return ans;
+	}
+}
@@ -0,0 +1,370 @@
+package util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ForkJoinPool;
+
+import ds.SparseCorpus;
+
+/**
+ * Binary on-disk cache of a parsed corpus, kept next to the
+ * docword file with the extension ".csr". The layout is
+ * little-endian:
+ * * int magic, int version
+ * * long size and long last-modified time of the source file
+ * * int D, int W, int NNZ
+ * * int[D+1] row offsets, int[NNZ] word IDs,
+ *   double[NNZ] counts, int[W] document frequencies
+ * A cache whose source file has changed is rebuilt. For
+ * corpora larger than the heap, prepare builds the cache by
+ * streaming the text, and DiskCorpus reads it back in blocks.
+ *
+ */
+public class CorpusCache {
+
+	public static final String EXTENSION = ".csr";
+
+	static final int MAGIC = 0x44435352; // "DCSR"
+	static final int VERSION = 1;
+	static final int HEADER_BYTES = 4 + 4 + 8 + 8 + 4 + 4 + 4;
+	private static final int WINDOW_BYTES = 1 << 30;
+
+	/************************* *************************/
+
+	/**
+	 * @description Load the corpus for the given docword file,
+	 * from its cache if that is up to date, otherwise by parsing
+	 * the text and writing a fresh cache for the next run.
+	 */
+	public static SparseCorpus load(String filepath, ForkJoinPool pool) throws IOException {
+		File source = new File(filepath);
+		File cache = new File(filepath + EXTENSION);
+		if (cache.isFile()) {
+			SparseCorpus ans = read(cache, source.length(), source.lastModified());
+			if (ans != null) {
+				return ans;
+			}
+		}
+		SparseCorpus ans = DocwordReader.read(filepath, pool);
+		try {
+			write(ans, cache, source.length(), source.lastModified());
+		} catch (IOException e) {
+			// The cache is only an optimisation, e.g. the directory may be read-only.
+			System.err.println("Could not write corpus cache " + cache + ": " + e.getMessage());
+		}
+		return ans;
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Make sure the docword file has an up-to-date
+	 * cache and return it. A missing or stale cache is built by
+	 * streaming the text twice, once to count the entries and
+	 * once to write them, so only the document frequencies and
+	 * one document at a time are ever held in memory.
+	 */
+	public static File prepare(String filepath) throws IOException {
+		File source = new File(filepath);
+		File cache = new File(filepath + EXTENSION);
+		if (cache.isFile()) {
+			RandomAccessFile file = new RandomAccessFile(cache, "r");
+			try {
+				if (isCurrent(file.getChannel(), source.length(), source.lastModified())) {
+					return cache;
+				}
+			} finally {
+				file.close();
+			}
+		}
+
+		// The NNZ header is not trusted, as in DocwordReader.
+		DocwordStream stream = new DocwordStream(filepath);
+		try {
+			int numberOfDocuments = stream.getNumberOfDocuments();
+			int numberOfWords = stream.getNumberOfWords();
+			int[] documentFrequencies = new int[numberOfWords];
+			long numberOfNonzeros = 0;
+			while (stream.nextDocument()) {
+				if (stream.getDocumentId() < 1 || stream.getDocumentId() > numberOfDocuments) {
+					throw new IOException("Document ID " + stream.getDocumentId() + " out of range in " + filepath);
+				}
+				int[] wordIds = stream.getWordIds();
+				for (int i = 0; i < stream.getLength(); ++i) {
+					if (wordIds[i] < 1 || wordIds[i] > numberOfWords) {
+						throw new IOException("Word ID " + wordIds[i] + " out of range in " + filepath);
+					}
+					documentFrequencies[wordIds[i] - 1]++;
+				}
+				numberOfNonzeros += stream.getLength();
+			}
+			if (numberOfNonzeros > Integer.MAX_VALUE) {
+				throw new IOException("Too many entries for a corpus cache in " + filepath);
+			}
+			stream.reset();
+			writeStreaming(stream, documentFrequencies, (int) numberOfNonzeros, cache, source.length(), source.lastModified());
+		} finally {
+			stream.close();
+		}
+		return cache;
+	}
+
+	/**
+	 * @description Write the documents of a stream to a cache
+	 * file, each section through its own buffer at its own
+	 * position, under a temporary name as in write.
+	 */
+	private static void writeStreaming(DocwordStream stream, int[] documentFrequencies, int numberOfNonzeros, File cache, long sourceSize,
+			long sourceModified) throws IOException {
+		int numberOfDocuments = stream.getNumberOfDocuments();
+		File tmp = new File(cache.getPath() + ".tmp" + System.nanoTime());
+		RandomAccessFile file = new RandomAccessFile(tmp, "rw");
+		try {
+			FileChannel channel = file.getChannel();
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC).putInt(VERSION).putLong(sourceSize).putLong(sourceModified);
+			header.putInt(numberOfDocuments).putInt(stream.getNumberOfWords()).putInt(numberOfNonzeros);
+			header.flip();
+			while (header.hasRemaining()) {
+				channel.write(header, HEADER_BYTES - header.remaining());
+			}
+			long rowPtrPosition = HEADER_BYTES;
+			long wordIdsPosition = rowPtrPosition + 4L * (numberOfDocuments + 1);
+			long countsPosition = wordIdsPosition + 4L * numberOfNonzeros;
+			SectionWriter rowPtr = new SectionWriter(channel, rowPtrPosition);
+			SectionWriter wordIds = new SectionWriter(channel, wordIdsPosition);
+			SectionWriter counts = new SectionWriter(channel, countsPosition);
+			int nextDocumentId = 1;
+			int nonzeros = 0;
+			rowPtr.putInt(0);
+			while (stream.nextDocument()) {
+				// Documents without entries are not in the stream.
+				for (; nextDocumentId < stream.getDocumentId(); ++nextDocumentId) {
+					rowPtr.putInt(nonzeros);
+				}
+				for (int i = 0; i < stream.getLength(); ++i) {
+					wordIds.putInt(stream.getWordIds()[i]);
+					counts.putDouble(stream.getCounts()[i]);
+				}
+				nonzeros += stream.getLength();
+				rowPtr.putInt(nonzeros);
+				nextDocumentId++;
+			}
+			for (; nextDocumentId <= numberOfDocuments; ++nextDocumentId) {
+				rowPtr.putInt(nonzeros);
+			}
+			if (nonzeros != numberOfNonzeros) {
+				throw new IOException("The docword file changed while building its cache");
+			}
+			rowPtr.flush();
+			wordIds.flush();
+			counts.flush();
+			SectionWriter frequencies = new SectionWriter(channel, countsPosition + 8L * numberOfNonzeros);
+			for (int w = 0; w < documentFrequencies.length; ++w) {
+				frequencies.putInt(documentFrequencies[w]);
+			}
+			frequencies.flush();
+		} finally {
+			file.close();
+		}
+		try {
+			Files.move(tmp.toPath(), cache.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			tmp.delete();
+		}
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Whether an open cache file has the expected
+	 * version and was built from a source of the given size and
+	 * modification time.
+	 */
+	static boolean isCurrent(FileChannel channel, long sourceSize, long sourceModified) throws IOException {
+		if (channel.size() < HEADER_BYTES) {
+			return false;
+		}
+		ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		if (header.getInt() != MAGIC || header.getInt() != VERSION
+				|| header.getLong() != sourceSize || header.getLong() != sourceModified) {
+			return false;
+		}
+		long numberOfDocuments = header.getInt();
+		long numberOfWords = header.getInt();
+		long numberOfNonzeros = header.getInt();
+		return channel.size() == HEADER_BYTES + 4 * (numberOfDocuments + 1) + 12 * numberOfNonzeros + 4 * numberOfWords;
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Read a cache file by memory-mapping it. Returns
+	 * null if it is not a cache of the expected version for a
+	 * source of the given size and modification time.
+	 */
+	public static SparseCorpus read(File cache, long sourceSize, long sourceModified) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(cache, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			if (!isCurrent(channel, sourceSize, sourceModified)) {
+				return null;
+			}
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES - 12, 12).order(ByteOrder.LITTLE_ENDIAN);
+			int numberOfDocuments = header.getInt();
+			int numberOfWords = header.getInt();
+			int numberOfNonzeros = header.getInt();
+			long position = HEADER_BYTES;
+			int[] rowPtr = new int[numberOfDocuments + 1];
+			position = readInts(channel, position, rowPtr);
+			int[] wordIds = new int[numberOfNonzeros];
+			position = readInts(channel, position, wordIds);
+			double[] counts = new double[numberOfNonzeros];
+			position = readDoubles(channel, position, counts);
+			int[] documentFrequencies = new int[numberOfWords];
+			readInts(channel, position, documentFrequencies);
+			return new SparseCorpus(numberOfDocuments, numberOfWords, rowPtr, wordIds, counts, documentFrequencies);
+		} finally {
+			file.close();
+		}
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Write the corpus to a cache file. The file is
+	 * written under a temporary name and moved into place, so a
+	 * concurrent reader never sees a partial cache.
+	 */
+	public static void write(SparseCorpus corpus, File cache, long sourceSize, long sourceModified) throws IOException {
+		File tmp = new File(cache.getPath() + ".tmp" + System.nanoTime());
+		RandomAccessFile file = new RandomAccessFile(tmp, "rw");
+		try {
+			FileChannel channel = file.getChannel();
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC).putInt(VERSION).putLong(sourceSize).putLong(sourceModified);
+			header.putInt(corpus.getNumberOfDocuments()).putInt(corpus.getNumberOfWords()).putInt(corpus.getNumberOfNonzeros());
+			header.flip();
+			while (header.hasRemaining()) {
+				channel.write(header);
+			}
+			ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+			writeInts(channel, buffer, corpus.getRowPtr(), corpus.getNumberOfDocuments() + 1);
+			writeInts(channel, buffer, corpus.getWordIds(), corpus.getNumberOfNonzeros());
+			writeDoubles(channel, buffer, corpus.getCounts(), corpus.getNumberOfNonzeros());
+			writeInts(channel, buffer, corpus.getDocumentFrequencies(), corpus.getNumberOfWords());
+		} finally {
+			file.close();
+		}
+		try {
+			Files.move(tmp.toPath(), cache.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			tmp.delete();
+		}
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Bulk copy helpers. Arrays are mapped in
+	 * windows so that sections larger than 2 GB still work.
+	 */
+	private static long readInts(FileChannel channel, long position, int[] target) throws IOException {
+		int done = 0;
+		while (done < target.length) {
+			int n = Math.min(target.length - done, WINDOW_BYTES / 4);
+			MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, 4L * n);
+			window.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(target, done, n);
+			done += n;
+			position += 4L * n;
+		}
+		return position;
+	}
+
+	private static long readDoubles(FileChannel channel, long position, double[] target) throws IOException {
+		int done = 0;
+		while (done < target.length) {
+			int n = Math.min(target.length - done, WINDOW_BYTES / 8);
+			MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, 8L * n);
+			window.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().get(target, done, n);
+			done += n;
+			position += 8L * n;
+		}
+		return position;
+	}
+
+	private static void writeInts(FileChannel channel, ByteBuffer buffer, int[] source, int length) throws IOException {
+		int done = 0;
+		while (done < length) {
+			int n = Math.min(length - done, buffer.capacity() / 4);
+			buffer.clear();
+			buffer.asIntBuffer().put(source, done, n);
+			buffer.limit(4 * n);
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			done += n;
+		}
+	}
+
+	private static void writeDoubles(FileChannel channel, ByteBuffer buffer, double[] source, int length) throws IOException {
+		int done = 0;
+		while (done < length) {
+			int n = Math.min(length - done, buffer.capacity() / 8);
+			buffer.clear();
+			buffer.asDoubleBuffer().put(source, done, n);
+			buffer.limit(8 * n);
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			done += n;
+		}
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Buffered little-endian writer for one section
+	 * of a file, starting at a given position.
+	 */
+	private static class SectionWriter {
+
+		private FileChannel channel;
+		private long position;
+		private ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+
+		public SectionWriter(FileChannel channel, long position) {
+			this.channel = channel;
+			this.position = position;
+		}
+
+		public void putInt(int value) throws IOException {
+			if (buffer.remaining() < 4) {
+				flush();
+			}
+			buffer.putInt(value);
+		}
+
+		public void putDouble(double value) throws IOException {
+			if (buffer.remaining() < 8) {
+				flush();
+			}
+			buffer.putDouble(value);
+		}
+
+		public void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				position += channel.write(buffer, position);
+			}
+			buffer.clear();
+		}
+	}
+}
@@ -0,0 +1,211 @@
+package util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * A corpus that stays on disk, in the cache format of
+ * CorpusCache, and is read sequentially in blocks of whole
+ * documents. Only the document frequencies and the current
+ * block are held on the heap; the block arrays are sized once
+ * from a byte budget and reused by every call to nextBlock.
+ * Within a block, document blockStart + j has its entries at
+ * [rowPtr[j], rowPtr[j+1]) of the word ID and count arrays.
+ *
+ */
+public class DiskCorpus {
+
+	private static final int BUFFER_BYTES = 1 << 16;
+	private static final long BYTES_PER_DOCUMENT = 4;
+	private static final long BYTES_PER_ENTRY = 4 + 8;
+
+	private File cache;
+	private RandomAccessFile file;
+	private FileChannel channel;
+	private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+	private int numberOfDocuments;
+	private int numberOfWords;
+	private int numberOfNonzeros;
+	private int[] documentFrequencies;
+	private double[] idf;
+	private long rowPtrPosition;
+	private long wordIdsPosition;
+	private long countsPosition;
+
+	private int nextDocumentId = 1;
+	private int blockStart;
+	private int blockLength;
+	private int[] rowPtr;
+	private int[] wordIds;
+	private double[] counts;
+
+	/************************* *************************/
+
+	/**
+	 * Constructor. Opens a cache file and reads its header and
+	 * document frequencies; the blocks are sized by
+	 * setBlockBytes.
+	 */
+	public DiskCorpus(File cache) throws IOException {
+		this.cache = cache;
+		this.file = new RandomAccessFile(cache, "r");
+		this.channel = file.getChannel();
+		ByteBuffer header = ByteBuffer.allocate(CorpusCache.HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(header, 0);
+		if (header.getInt() != CorpusCache.MAGIC || header.getInt() != CorpusCache.VERSION) {
+			throw new IOException("Not a corpus cache: " + cache);
+		}
+		header.getLong();
+		header.getLong();
+		this.numberOfDocuments = header.getInt();
+		this.numberOfWords = header.getInt();
+		this.numberOfNonzeros = header.getInt();
+		this.rowPtrPosition = CorpusCache.HEADER_BYTES;
+		this.wordIdsPosition = rowPtrPosition + 4L * (numberOfDocuments + 1);
+		this.countsPosition = wordIdsPosition + 4L * numberOfNonzeros;
+		if (channel.size() != countsPosition + 8L * numberOfNonzeros + 4L * numberOfWords) {
+			throw new IOException("Truncated corpus cache: " + cache);
+		}
+		this.documentFrequencies = new int[numberOfWords];
+		readInts(countsPosition + 8L * numberOfNonzeros, documentFrequencies, 0, numberOfWords);
+		this.idf = new double[numberOfWords];
+		for (int w = 0; w < numberOfWords; ++w) {
+			idf[w] = Math.log(numberOfDocuments) - Math.log(documentFrequencies[w]);
+		}
+		setBlockBytes(1L << 20);
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Getter functions. The block getters refer to
+	 * the block read by the last nextBlock call.
+	 */
+	public int getNumberOfDocuments() { return this.numberOfDocuments; }
+	public int getNumberOfWords() { return this.numberOfWords; }
+	public int getNumberOfNonzeros() { return this.numberOfNonzeros; }
+	public int[] getDocumentFrequencies() { return this.documentFrequencies; }
+	public double[] getIdf() { return this.idf; }
+	public int getBlockStart() { return this.blockStart; }
+	public int getBlockLength() { return this.blockLength; }
+	public int[] getRowPtr() { return this.rowPtr; }
+	public int[] getWordIds() { return this.wordIds; }
+	public double[] getCounts() { return this.counts; }
+
+	/************************* *************************/
+
+	/**
+	 * @description Size the block arrays to about the given
+	 * number of bytes, split between documents and entries by
+	 * the average document length. A document longer than a
+	 * block still gets a block of its own, which then grows.
+	 */
+	public void setBlockBytes(long blockBytes) {
+		long bytesPerDocument = BYTES_PER_DOCUMENT + BYTES_PER_ENTRY * Math.max(1, numberOfNonzeros / Math.max(1, numberOfDocuments));
+		int maxDocuments = (int) Math.max(1, Math.min(numberOfDocuments, blockBytes / bytesPerDocument));
+		int maxEntries = (int) Math.max(1, Math.min(numberOfNonzeros, (blockBytes - BYTES_PER_DOCUMENT * maxDocuments) / BYTES_PER_ENTRY));
+		this.rowPtr = new int[maxDocuments + 1];
+		this.wordIds = new int[maxEntries];
+		this.counts = new double[maxEntries];
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Read the next block of documents, as many as
+	 * fit in the block arrays. Returns false after the last
+	 * document.
+	 */
+	public boolean nextBlock() throws IOException {
+		if (nextDocumentId > numberOfDocuments) {
+			return false;
+		}
+		int length = Math.min(rowPtr.length - 1, numberOfDocuments - nextDocumentId + 1);
+		readInts(rowPtrPosition + 4L * (nextDocumentId - 1), rowPtr, 0, length + 1);
+		int first = rowPtr[0];
+		if (rowPtr[length] - first > wordIds.length) {
+			// The longest prefix of documents whose entries fit.
+			int low = 1;
+			int high = length;
+			while (low < high) {
+				int mid = (low + high + 1) >>> 1;
+				if (rowPtr[mid] - first <= wordIds.length) {
+					low = mid;
+				} else {
+					high = mid - 1;
+				}
+			}
+			length = low;
+		}
+		int entries = rowPtr[length] - first;
+		if (entries > wordIds.length) {
+			this.wordIds = new int[entries];
+			this.counts = new double[entries];
+		}
+		for (int j = 0; j <= length; ++j) {
+			rowPtr[j] -= first;
+		}
+		readInts(wordIdsPosition + 4L * first, wordIds, 0, entries);
+		readDoubles(countsPosition + 8L * first, counts, 0, entries);
+		this.blockStart = nextDocumentId;
+		this.blockLength = length;
+		nextDocumentId += length;
+		return true;
+	}
+
+	/**
+	 * @description Start again from the first document.
+	 */
+	public void reset() {
+		this.nextDocumentId = 1;
+		this.blockLength = 0;
+	}
+
+	public void close() throws IOException {
+		file.close();
+	}
+
+	/************************* *************************/
+
+	private void readFully(ByteBuffer target, long position) throws IOException {
+		while (target.hasRemaining()) {
+			int read = channel.read(target, position);
+			if (read < 0) {
+				throw new IOException("Truncated corpus cache: " + cache);
+			}
+			position += read;
+		}
+		target.flip();
+	}
+
+	private void readInts(long position, int[] target, int offset, int length) throws IOException {
+		while (length > 0) {
+			int n = Math.min(length, BUFFER_BYTES / 4);
+			buffer.clear();
+			buffer.limit(4 * n);
+			readFully(buffer, position);
+			buffer.asIntBuffer().get(target, offset, n);
+			position += 4L * n;
+			offset += n;
+			length -= n;
+		}
+	}
+
+	private void readDoubles(long position, double[] target, int offset, int length) throws IOException {
+		while (length > 0) {
+			int n = Math.min(length, BUFFER_BYTES / 8);
+			buffer.clear();
+			buffer.limit(8 * n);
+			readFully(buffer, position);
+			buffer.asDoubleBuffer().get(target, offset, n);
+			position += 8L * n;
+			offset += n;
+			length -= n;
+		}
+	}
+}
@@ -0,0 +1,356 @@
+package util;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import ds.SparseCorpus;
+
+/**
+ * Loader for UCI bag-of-words files (docword.*.txt). The
+ * file is memory-mapped and ASCII numbers are parsed straight
+ * from the mapped bytes, so no String is created per line.
+ * The data lines can be split on line boundaries into chunks
+ * which are parsed in parallel into the same corpus arrays.
+ *
+ * The format is three header lines D, W and NNZ followed by
+ * NNZ lines "docID wordID count", grouped by docID in
+ * increasing order.
+ *
+ */
+public class DocwordReader {
+
+	private static final long MAX_CHUNK_BYTES = 1L << 30;
+
+	/************************* *************************/
+
+	/**
+	 * @description Read the given docword file on the calling
+	 * thread.
+	 */
+	public static SparseCorpus read(String filepath) throws IOException {
+		return read(filepath, null);
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Read the given docword file. If a pool is
+	 * given, the data lines are parsed in one chunk per worker.
+	 */
+	public static SparseCorpus read(String filepath, ForkJoinPool pool) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(filepath, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			long fileSize = channel.size();
+
+			// Header: three numbers, one per line.
+			long[] header = new long[3];
+			long dataStart = readHeader(channel, header);
+			int numberOfDocuments = (int) header[0];
+			int numberOfWords = (int) header[1];
+
+			// Split the data lines into chunks starting at line boundaries.
+			int parallelism = pool == null ? 1 : pool.getParallelism();
+			long dataSize = fileSize - dataStart;
+			int numberOfChunks = (int) Math.max(parallelism, (dataSize + MAX_CHUNK_BYTES - 1) / MAX_CHUNK_BYTES);
+			long[] boundaries = new long[numberOfChunks + 1];
+			boundaries[0] = dataStart;
+			boundaries[numberOfChunks] = fileSize;
+			for (int i = 1; i < numberOfChunks; ++i) {
+				boundaries[i] = nextLineStart(channel, Math.max(boundaries[i - 1], dataStart + dataSize * i / numberOfChunks), fileSize);
+			}
+			Chunk[] chunks = new Chunk[numberOfChunks];
+			for (int i = 0; i < numberOfChunks; ++i) {
+				chunks[i] = new Chunk(channel, boundaries[i], boundaries[i + 1]);
+			}
+
+			// First pass counts the entries of each chunk to fix where it writes.
+			// The NNZ header is not trusted; the toy dataset understates it.
+			runAll(chunks, pool, false, null);
+			int numberOfNonzeros = 0;
+			for (Chunk chunk : chunks) {
+				chunk.entryOffset = numberOfNonzeros;
+				numberOfNonzeros += chunk.numberOfEntries;
+			}
+
+			// Second pass parses every entry into place.
+			int[] rowPtr = new int[numberOfDocuments + 1];
+			Arrays.fill(rowPtr, -1);
+			Corpus target = new Corpus(rowPtr, new int[numberOfNonzeros], new double[numberOfNonzeros], numberOfDocuments, numberOfWords);
+			runAll(chunks, pool, true, target);
+
+			// Stitch document boundaries between chunks, then give documents without entries empty rows.
+			int[] documentFrequencies = new int[numberOfWords];
+			int lastDocId = 0;
+			for (Chunk chunk : chunks) {
+				if (chunk.numberOfEntries == 0) {
+					continue;
+				}
+				if (chunk.firstDocId < lastDocId) {
+					throw new IOException("Document IDs are not sorted in " + filepath);
+				}
+				if (lastDocId != 0 && chunk.firstDocId != lastDocId) {
+					rowPtr[lastDocId] = chunk.entryOffset;
+				}
+				lastDocId = chunk.lastDocId;
+				for (int w = 0; w < numberOfWords; ++w) {
+					documentFrequencies[w] += chunk.documentFrequencies[w];
+				}
+			}
+			rowPtr[0] = 0;
+			rowPtr[numberOfDocuments] = numberOfNonzeros;
+			if (lastDocId != 0) {
+				rowPtr[lastDocId] = numberOfNonzeros;
+			}
+			for (int d = 1; d <= numberOfDocuments; ++d) {
+				if (rowPtr[d] == -1) {
+					rowPtr[d] = rowPtr[d - 1];
+				}
+			}
+			return new SparseCorpus(numberOfDocuments, numberOfWords, rowPtr, target.wordIds, target.counts, documentFrequencies);
+		} finally {
+			file.close();
+		}
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Parse the three header numbers and return the
+	 * offset of the first data line.
+	 */
+	private static long readHeader(FileChannel channel, long[] header) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(256);
+		channel.read(buffer, 0);
+		int limit = buffer.position();
+		int found = 0;
+		long value = 0;
+		boolean inNumber = false;
+		for (int i = 0; i < limit; ++i) {
+			byte b = buffer.get(i);
+			if (b >= '0' && b <= '9') {
+				value = value * 10 + (b - '0');
+				inNumber = true;
+			} else if (b == '\n') {
+				if (inNumber) {
+					header[found++] = value;
+					value = 0;
+					inNumber = false;
+				}
+				if (found == 3) {
+					return i + 1;
+				}
+			} else if (b != '\r' && b != ' ' && b != '\t') {
+				throw new IOException("Malformed docword header");
+			}
+		}
+		throw new IOException("Malformed docword header");
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Return the offset just after the first
+	 * newline at or after the given position.
+	 */
+	private static long nextLineStart(FileChannel channel, long position, long fileSize) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(4096);
+		while (position < fileSize) {
+			buffer.clear();
+			int read = channel.read(buffer, position);
+			for (int i = 0; i < read; ++i) {
+				if (buffer.get(i) == '\n') {
+					return position + i + 1;
+				}
+			}
+			position += read;
+		}
+		return fileSize;
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Run one pass over all chunks, in parallel if
+	 * a pool is given.
+	 */
+	private static void runAll(Chunk[] chunks, ForkJoinPool pool, boolean store, Corpus target) throws IOException {
+		if (pool == null) {
+			for (Chunk chunk : chunks) {
+				chunk.parse(store, target);
+			}
+			return;
+		}
+		ChunkTask[] tasks = new ChunkTask[chunks.length];
+		for (int i = 0; i < chunks.length; ++i) {
+			tasks[i] = new ChunkTask(chunks[i], store, target);
+			pool.execute(tasks[i]);
+		}
+		for (ChunkTask task : tasks) {
+			task.join();
+			if (task.error != null) {
+				throw task.error;
+			}
+		}
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description The arrays being filled by the second pass.
+	 */
+	private static class Corpus {
+
+		private int[] rowPtr;
+		private int[] wordIds;
+		private double[] counts;
+		private int numberOfDocuments;
+		private int numberOfWords;
+
+		public Corpus(int[] rowPtr, int[] wordIds, double[] counts, int numberOfDocuments, int numberOfWords) {
+			this.rowPtr = rowPtr;
+			this.wordIds = wordIds;
+			this.counts = counts;
+			this.numberOfDocuments = numberOfDocuments;
+			this.numberOfWords = numberOfWords;
+		}
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description A byte range of whole data lines. Document
+	 * boundaries inside the chunk are written to rowPtr directly;
+	 * the ones between chunks are stitched afterwards.
+	 */
+	private static class Chunk {
+
+		private FileChannel channel;
+		private long start;
+		private long end;
+		private int numberOfEntries;
+		private int entryOffset;
+		private int firstDocId;
+		private int lastDocId;
+		private int[] documentFrequencies;
+
+		public Chunk(FileChannel channel, long start, long end) {
+			this.channel = channel;
+			this.start = start;
+			this.end = end;
+		}
+
+		public void parse(boolean store, Corpus target) throws IOException {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+			int limit = (int) (end - start);
+			int entry = entryOffset;
+			int field = 0;
+			long value = 0;
+			long fraction = 0;
+			long scale = 0;
+			boolean inNumber = false;
+			int docId = 0;
+			int wordId = 0;
+			int previousDocId = 0;
+			if (store) {
+				documentFrequencies = new int[target.numberOfWords];
+			}
+			numberOfEntries = 0;
+			for (int i = 0; i <= limit; ++i) {
+				byte b = i < limit ? buffer.get(i) : (byte) '\n';
+				if (b >= '0' && b <= '9') {
+					if (scale > 0) {
+						fraction = fraction * 10 + (b - '0');
+						scale *= 10;
+					} else {
+						value = value * 10 + (b - '0');
+					}
+					inNumber = true;
+					continue;
+				}
+				if (b == '.' && inNumber && field == 2 && scale == 0) {
+					scale = 1;
+					continue;
+				}
+				if (b != ' ' && b != '\t' && b != '\r' && b != '\n') {
+					throw new IOException("Malformed docword line near byte " + (start + i));
+				}
+				if (inNumber) {
+					if (store) {
+						if (field == 0) {
+							docId = (int) value;
+						} else if (field == 1) {
+							wordId = (int) value;
+						} else if (field == 2) {
+							if (docId < 1 || docId > target.numberOfDocuments || wordId < 1 || wordId > target.numberOfWords) {
+								throw new IOException("Entry out of range near byte " + (start + i));
+							}
+							if (docId != previousDocId) {
+								if (previousDocId == 0) {
+									firstDocId = docId;
+								} else if (docId < previousDocId) {
+									throw new IOException("Document IDs are not sorted near byte " + (start + i));
+								} else {
+									target.rowPtr[previousDocId] = entry;
+								}
+								previousDocId = docId;
+							}
+							target.wordIds[entry] = wordId;
+							target.counts[entry++] = scale > 0 ? value + (double) fraction / scale : value;
+							documentFrequencies[wordId - 1]++;
+						}
+					}
+					field++;
+					value = 0;
+					fraction = 0;
+					scale = 0;
+					inNumber = false;
+				}
+				if (b == '\n') {
+					if (field == 3) {
+						numberOfEntries++;
+					} else if (field != 0) {
+						throw new IOException("Malformed docword line near byte " + (start + i));
+					}
+					field = 0;
+				}
+			}
+			lastDocId = previousDocId;
+		}
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Runs one chunk pass, keeping any I/O error to
+	 * be rethrown on the calling thread.
+	 */
+	@SuppressWarnings("serial")
+	private static class ChunkTask extends RecursiveAction {
+
+		private Chunk chunk;
+		private boolean store;
+		private Corpus target;
+		private IOException error;
+
+		public ChunkTask(Chunk chunk, boolean store, Corpus target) {
+			this.chunk = chunk;
+			this.store = store;
+			this.target = target;
+		}
+
+		protected void compute() {
+			try {
+				chunk.parse(store, target);
+			} catch (IOException e) {
+				this.error = e;
+			}
+		}
+	}
+}
@@ -0,0 +1,202 @@
+package util;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Sequential reader for UCI bag-of-words files that hands
+ * out one document at a time, so a pass over the corpus only
+ * needs memory for the longest document. Numbers are parsed
+ * straight from a reusable byte buffer. The document arrays
+ * are reused by the next call to nextDocument.
+ *
+ */
+public class DocwordStream {
+
+	private static final int BUFFER_BYTES = 1 << 20;
+
+	private String filepath;
+	private RandomAccessFile file;
+	private FileChannel channel;
+	private ByteBuffer buffer;
+	private double value;
+
+	private int numberOfDocuments;
+	private int numberOfWords;
+	private int numberOfNonzeros;
+
+	private int documentId;
+	private int length;
+	private int[] wordIds = new int[16];
+	private double[] counts = new double[16];
+
+	private boolean hasPending;
+	private int pendingDocId;
+	private int pendingWordId;
+	private double pendingCount;
+
+	/************************* *************************/
+
+	/**
+	 * Constructor. Opens the file and reads the header.
+	 */
+	public DocwordStream(String filepath) throws IOException {
+		this.filepath = filepath;
+		this.buffer = ByteBuffer.allocate(BUFFER_BYTES);
+		open();
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Getter functions. The document getters refer
+	 * to the document returned by the last nextDocument call.
+	 */
+	public int getNumberOfDocuments() { return this.numberOfDocuments; }
+	public int getNumberOfWords() { return this.numberOfWords; }
+	public int getNumberOfNonzeros() { return this.numberOfNonzeros; }
+	public int getDocumentId() { return this.documentId; }
+	public int getLength() { return this.length; }
+	public int[] getWordIds() { return this.wordIds; }
+	public double[] getCounts() { return this.counts; }
+
+	/************************* *************************/
+
+	/**
+	 * @description Move to the next document that has entries.
+	 * Returns false at the end of the file.
+	 */
+	public boolean nextDocument() throws IOException {
+		if (!hasPending && !readEntry()) {
+			return false;
+		}
+		documentId = pendingDocId;
+		length = 0;
+		do {
+			if (length == wordIds.length) {
+				int[] newWordIds = new int[2 * length];
+				double[] newCounts = new double[2 * length];
+				System.arraycopy(wordIds, 0, newWordIds, 0, length);
+				System.arraycopy(counts, 0, newCounts, 0, length);
+				wordIds = newWordIds;
+				counts = newCounts;
+			}
+			wordIds[length] = pendingWordId;
+			counts[length++] = pendingCount;
+			hasPending = false;
+		} while (readEntry() && pendingDocId == documentId);
+		if (hasPending && pendingDocId < documentId) {
+			throw new IOException("Document IDs are not sorted in " + filepath);
+		}
+		return true;
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Start again from the first document.
+	 */
+	public void reset() throws IOException {
+		close();
+		open();
+	}
+
+	public void close() throws IOException {
+		file.close();
+	}
+
+	/************************* *************************/
+
+	private void open() throws IOException {
+		this.file = new RandomAccessFile(filepath, "r");
+		this.channel = file.getChannel();
+		buffer.clear();
+		buffer.flip();
+		hasPending = false;
+		if (!readNumber()) {
+			throw new IOException("Malformed docword header in " + filepath);
+		}
+		numberOfDocuments = (int) value;
+		if (!readNumber()) {
+			throw new IOException("Malformed docword header in " + filepath);
+		}
+		numberOfWords = (int) value;
+		if (!readNumber()) {
+			throw new IOException("Malformed docword header in " + filepath);
+		}
+		numberOfNonzeros = (int) value;
+	}
+
+	/**
+	 * @description Read the next "docID wordID count" entry into
+	 * the pending fields.
+	 */
+	private boolean readEntry() throws IOException {
+		if (!readNumber()) {
+			return false;
+		}
+		pendingDocId = (int) value;
+		if (!readNumber()) {
+			throw new IOException("Truncated docword entry in " + filepath);
+		}
+		pendingWordId = (int) value;
+		if (!readNumber()) {
+			throw new IOException("Truncated docword entry in " + filepath);
+		}
+		pendingCount = value;
+		hasPending = true;
+		return true;
+	}
+
+	/**
+	 * @description Parse the next whitespace-separated number
+	 * into value. Returns false at the end of the file.
+	 */
+	private boolean readNumber() throws IOException {
+		int b = nextByte();
+		while (b == ' ' || b == '\n' || b == '\r' || b == '\t') {
+			b = nextByte();
+		}
+		if (b < 0) {
+			return false;
+		}
+		long integer = 0;
+		long fraction = 0;
+		long scale = 0;
+		boolean any = false;
+		for (; b >= 0 && b != ' ' && b != '\n' && b != '\r' && b != '\t'; b = nextByte()) {
+			if (b >= '0' && b <= '9') {
+				if (scale > 0) {
+					fraction = fraction * 10 + (b - '0');
+					scale *= 10;
+				} else {
+					integer = integer * 10 + (b - '0');
+				}
+				any = true;
+			} else if (b == '.' && scale == 0) {
+				scale = 1;
+			} else {
+				throw new IOException("Malformed number in " + filepath);
+			}
+		}
+		if (!any) {
+			throw new IOException("Malformed number in " + filepath);
+		}
+		value = scale > 0 ? integer + (double) fraction / scale : integer;
+		return true;
+	}
+
+	private int nextByte() throws IOException {
+		if (!buffer.hasRemaining()) {
+			buffer.clear();
+			int read = channel.read(buffer);
+			buffer.flip();
+			if (read <= 0) {
+				return -1;
+			}
+		}
+		return buffer.get() & 0xff;
+	}
+}
@@ -0,0 +1,185 @@
+package util;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writers for the final clusters of a run, given as the
+ * membership array that holds the centroid ID (from 1) of each
+ * document by ID - 1. Documents are grouped by cluster with a
+ * counting sort into a single int array, and every format is
+ * streamed through a small buffer, so no report is ever built
+ * in memory. Three formats are supported:
+ * * text, one line per cluster listing its document IDs as
+ *   "[1, 5, 9]", as in the original output files
+ * * ranges, one line per cluster "c: 1-4, 9, 12-20" where
+ *   runs of consecutive IDs are collapsed
+ * * binary, little-endian ints: magic, version, D, k and the
+ *   membership array itself
+ *
+ */
+public class ResultWriter {
+
+	private static final int MAGIC = 0x444d4252; // "DMBR"
+	private static final int VERSION = 1;
+	private static final int HEADER_BYTES = 4 * 4;
+	private static final int BUFFER_BYTES = 1 << 16;
+
+	/************************* *************************/
+
+	/**
+	 * @description Write the clusters as text to a file.
+	 */
+	public static void writeText(int[] membership, int k, String filepath, boolean append) throws IOException {
+		BufferedWriter writer = new BufferedWriter(new FileWriter(filepath, append), BUFFER_BYTES);
+		try {
+			writeText(membership, k, writer);
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * @description Write the clusters as text to a writer,
+	 * which is flushed but not closed.
+	 */
+	public static void writeText(int[] membership, int k, Writer writer) throws IOException {
+		int[] clusterStart = new int[k + 1];
+		int[] orderedDocuments = groupByCluster(membership, k, clusterStart);
+		for (int c = 0; c < k; ++c) {
+			writer.write('[');
+			for (int i = clusterStart[c]; i < clusterStart[c + 1]; ++i) {
+				if (i > clusterStart[c]) {
+					writer.write(", ");
+				}
+				writer.write(Integer.toString(orderedDocuments[i]));
+			}
+			writer.write("]\n");
+		}
+		writer.flush();
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Write the clusters as ranges of consecutive
+	 * document IDs to a file.
+	 */
+	public static void writeRanges(int[] membership, int k, String filepath, boolean append) throws IOException {
+		int[] clusterStart = new int[k + 1];
+		int[] orderedDocuments = groupByCluster(membership, k, clusterStart);
+		BufferedWriter writer = new BufferedWriter(new FileWriter(filepath, append), BUFFER_BYTES);
+		try {
+			for (int c = 0; c < k; ++c) {
+				writer.write(Integer.toString(c + 1));
+				writer.write(':');
+				int i = clusterStart[c];
+				while (i < clusterStart[c + 1]) {
+					int first = orderedDocuments[i];
+					int last = first;
+					while (++i < clusterStart[c + 1] && orderedDocuments[i] == last + 1) {
+						last++;
+					}
+					writer.write(first == orderedDocuments[clusterStart[c]] ? " " : ", ");
+					writer.write(Integer.toString(first));
+					if (last > first) {
+						writer.write('-');
+						writer.write(Integer.toString(last));
+					}
+				}
+				writer.write('\n');
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Write the membership array in binary.
+	 */
+	public static void writeBinary(int[] membership, int k, String filepath) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(filepath, "rw");
+		try {
+			file.setLength(0);
+			FileChannel channel = file.getChannel();
+			ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			buffer.putInt(MAGIC).putInt(VERSION).putInt(membership.length).putInt(k);
+			int done = 0;
+			while (true) {
+				int n = Math.min(membership.length - done, buffer.remaining() / 4);
+				buffer.asIntBuffer().put(membership, done, n);
+				buffer.position(buffer.position() + 4 * n);
+				done += n;
+				buffer.flip();
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+				if (done == membership.length) {
+					break;
+				}
+				buffer.clear();
+			}
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * @description Read a membership array written by
+	 * writeBinary.
+	 */
+	public static int[] readBinary(String filepath) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(new File(filepath), "r");
+		try {
+			FileChannel channel = file.getChannel();
+			if (channel.size() < HEADER_BYTES) {
+				throw new IOException("Not a membership file: " + filepath);
+			}
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+				throw new IOException("Not a membership file: " + filepath);
+			}
+			int numberOfDocuments = header.getInt();
+			header.getInt();
+			if (channel.size() != HEADER_BYTES + 4L * numberOfDocuments) {
+				throw new IOException("Truncated membership file: " + filepath);
+			}
+			int[] ans = new int[numberOfDocuments];
+			channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, 4L * numberOfDocuments).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(ans);
+			return ans;
+		} finally {
+			file.close();
+		}
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Counting sort of the document IDs by cluster.
+	 * Cluster c (from 0) holds the IDs at [clusterStart[c],
+	 * clusterStart[c+1]) of the result, in increasing order.
+	 */
+	private static int[] groupByCluster(int[] membership, int k, int[] clusterStart) {
+		for (int i = 0; i < membership.length; ++i) {
+			clusterStart[membership[i]]++;
+		}
+		for (int c = 0; c < k; ++c) {
+			clusterStart[c + 1] += clusterStart[c];
+		}
+		int[] next = clusterStart.clone();
+		int[] ans = new int[membership.length];
+		for (int i = 0; i < membership.length; ++i) {
+			ans[next[membership[i] - 1]++] = i + 1;
+		}
+		return ans;
+	}
+}
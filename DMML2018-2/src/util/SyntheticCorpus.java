@@ -0,0 +1,166 @@
+package util;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import ds.SparseCorpus;
+
+/**
+ * Generator for random bag-of-words corpora of any size, for
+ * benchmarks and stress runs. Words are drawn from a Zipf
+ * distribution over the vocabulary, word ID 1 being the most
+ * frequent, and document lengths (distinct words) are uniform
+ * around the requested mean. Counts are 1 plus a geometric
+ * number, like the small counts of real docword files.
+ *
+ */
+public class SyntheticCorpus {
+
+	private static final double ZIPF_EXPONENT = 1.0;
+	private static final double REPEAT_PROBABILITY = 0.3;
+
+	/************************* *************************/
+
+	/**
+	 * @description Generate a corpus of the given number of
+	 * documents over the given vocabulary, with on average
+	 * meanLength distinct words per document, at most half the
+	 * vocabulary. The same seed gives the same corpus.
+	 */
+	public static SparseCorpus generate(int numberOfDocuments, int numberOfWords, int meanLength, long seed) {
+		Generator generator = new Generator(numberOfWords, meanLength, seed);
+		int[] rowPtr = new int[numberOfDocuments + 1];
+		int[] wordIds = new int[Math.max(16, numberOfDocuments * meanLength)];
+		double[] counts = new double[wordIds.length];
+		int[] documentFrequencies = new int[numberOfWords];
+		int nnz = 0;
+		for (int d = 0; d < numberOfDocuments; ++d) {
+			int length = generator.nextDocument();
+			if (nnz + length > wordIds.length) {
+				wordIds = Arrays.copyOf(wordIds, 2 * (nnz + length));
+				counts = Arrays.copyOf(counts, wordIds.length);
+			}
+			for (int i = 0; i < length; ++i) {
+				documentFrequencies[generator.document[i]]++;
+				wordIds[nnz] = generator.document[i] + 1;
+				counts[nnz++] = generator.counts[i];
+			}
+			rowPtr[d + 1] = nnz;
+		}
+		return new SparseCorpus(numberOfDocuments, numberOfWords, rowPtr, Arrays.copyOf(wordIds, nnz), Arrays.copyOf(counts, nnz),
+				documentFrequencies);
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Write the corpus that generate would return
+	 * as a docword file, one document at a time, so that files
+	 * larger than the heap can be made. The documents are
+	 * generated twice, first to count the entries for the
+	 * header.
+	 */
+	public static void write(String filepath, int numberOfDocuments, int numberOfWords, int meanLength, long seed) throws IOException {
+		Generator generator = new Generator(numberOfWords, meanLength, seed);
+		long nnz = 0;
+		for (int d = 0; d < numberOfDocuments; ++d) {
+			nnz += generator.nextDocument();
+		}
+		generator = new Generator(numberOfWords, meanLength, seed);
+		BufferedWriter writer = new BufferedWriter(new FileWriter(filepath), 1 << 16);
+		try {
+			writer.write(numberOfDocuments + "\n" + numberOfWords + "\n" + nnz + "\n");
+			for (int d = 1; d <= numberOfDocuments; ++d) {
+				int length = generator.nextDocument();
+				String documentId = Integer.toString(d);
+				for (int i = 0; i < length; ++i) {
+					writer.write(documentId);
+					writer.write(' ');
+					writer.write(Integer.toString(generator.document[i] + 1));
+					writer.write(' ');
+					writer.write(Integer.toString(generator.counts[i]));
+					writer.write('\n');
+				}
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Draws one document at a time: its distinct
+	 * words (from 0) in increasing order and their counts.
+	 */
+	private static class Generator {
+
+		private Random random;
+		private double[] cumulative;
+		private double total;
+		private int numberOfWords;
+		private int maxLength;
+		private boolean[] chosen;
+		private int[] document;
+		private int[] counts;
+
+		public Generator(int numberOfWords, int meanLength, long seed) {
+			if (meanLength < 1 || 2 * meanLength > numberOfWords) {
+				throw(new RuntimeException("Mean document length must be between 1 and half the vocabulary size!"));
+			}
+			this.random = new Random(seed);
+			this.numberOfWords = numberOfWords;
+			this.cumulative = new double[numberOfWords];
+			for (int w = 0; w < numberOfWords; ++w) {
+				total += 1 / Math.pow(w + 1, ZIPF_EXPONENT);
+				cumulative[w] = total;
+			}
+			this.maxLength = Math.min(numberOfWords, 2 * meanLength - 1);
+			this.chosen = new boolean[numberOfWords];
+			this.document = new int[maxLength];
+			this.counts = new int[maxLength];
+		}
+
+		public int nextDocument() {
+			int length = 1 + random.nextInt(maxLength);
+			for (int i = 0; i < length; ++i) {
+				int w;
+				do {
+					w = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+					w = Math.min(w < 0 ? -w - 1 : w, numberOfWords - 1);
+				} while (chosen[w]);
+				chosen[w] = true;
+				document[i] = w;
+			}
+			Arrays.sort(document, 0, length);
+			for (int i = 0; i < length; ++i) {
+				chosen[document[i]] = false;
+				int count = 1;
+				while (random.nextDouble() < REPEAT_PROBABILITY) {
+					count++;
+				}
+				counts[i] = count;
+			}
+			return length;
+		}
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Write a synthetic docword file. Arguments:
+	 * the file, the number of documents, the vocabulary size,
+	 * the mean document length and optionally the seed.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 4) {
+			System.err.println("Usage: SyntheticCorpus <docword file> <documents> <words> <mean length> [seed]");
+			return;
+		}
+		write(args[0], Integer.parseInt(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]),
+				args.length > 4 ? Long.parseLong(args[4]) : 42);
+	}
+}
@@ -0,0 +1,202 @@
+package util;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import ds.SparseCorpus;
+
+/**
+ * A preprocessing stage that shrinks the vocabulary of a
+ * corpus before clustering. Words are kept if their document
+ * frequency lies between a minimum count and a maximum
+ * fraction of the documents, which drops hapaxes and words
+ * that appear almost everywhere; of those, at most a given
+ * number of words with the highest document frequency or
+ * total tf-idf weight are kept. The surviving words get new
+ * dense IDs in the same order, so documents stay sorted by
+ * word ID, and every vector and centroid gets shorter.
+ *
+ * Documents keep their IDs, their document frequencies and
+ * so their idf weights are unchanged, and documents left
+ * without words have no direction, like empty documents. The
+ * word map translates the new word IDs back to the original
+ * ones.
+ *
+ */
+public class VocabularyFilter {
+
+	private int minDocumentFrequency;
+	private double maxDocumentFraction;
+	private int maxWords;
+	private boolean rankByTfIdf;
+
+	private int[] wordMap;
+	private int originalWords;
+	private long originalNonzeros;
+	private long keptNonzeros;
+
+	/************************* *************************/
+
+	/**
+	 * Constructor. A minimum document frequency of 0 or 1 only
+	 * drops words that never occur, a maximum fraction of 1
+	 * disables the upper bound and a maximum of 0 words keeps
+	 * all words in the bounds.
+	 */
+	public VocabularyFilter(int minDocumentFrequency, double maxDocumentFraction, int maxWords, boolean rankByTfIdf) {
+		if (minDocumentFrequency < 0 || !(maxDocumentFraction > 0 && maxDocumentFraction <= 1) || maxWords < 0) {
+			throw(new RuntimeException("Invalid vocabulary filter parameters!"));
+		}
+		this.minDocumentFrequency = Math.max(1, minDocumentFrequency);
+		this.maxDocumentFraction = maxDocumentFraction;
+		this.maxWords = maxWords;
+		this.rankByTfIdf = rankByTfIdf;
+	}
+
+	/**
+	 * Constructor. Filters by document frequency only.
+	 */
+	public VocabularyFilter(int minDocumentFrequency, double maxDocumentFraction) {
+		this(minDocumentFrequency, maxDocumentFraction, 0, false);
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Getter functions, valid after apply. The word
+	 * map holds the original ID of every new word ID, by new
+	 * ID - 1.
+	 */
+	public int[] getWordMap() { return this.wordMap; }
+	public int getOriginalWords() { return this.originalWords; }
+	public int getKeptWords() { return this.wordMap.length; }
+	public long getOriginalNonzeros() { return this.originalNonzeros; }
+	public long getKeptNonzeros() { return this.keptNonzeros; }
+
+	/************************* *************************/
+
+	/**
+	 * @description Return the corpus restricted to the kept
+	 * words, with the word IDs remapped.
+	 */
+	public SparseCorpus apply(SparseCorpus data) {
+		int numberOfDocuments = data.getNumberOfDocuments();
+		int numberOfWords = data.getNumberOfWords();
+		int[] documentFrequencies = data.getDocumentFrequencies();
+		int[] rowPtr = data.getRowPtr();
+		int[] wordIds = data.getWordIds();
+		double[] counts = data.getCounts();
+
+		// Words within the document frequency bounds.
+		double maxDocumentFrequency = maxDocumentFraction * numberOfDocuments;
+		boolean[] keep = new boolean[numberOfWords];
+		int kept = 0;
+		for (int w = 0; w < numberOfWords; ++w) {
+			keep[w] = documentFrequencies[w] >= minDocumentFrequency && documentFrequencies[w] <= maxDocumentFrequency;
+			if (keep[w]) {
+				kept++;
+			}
+		}
+
+		// Of those, the top words by score, ties to the lowest ID.
+		if (maxWords > 0 && kept > maxWords) {
+			final double[] scores = new double[numberOfWords];
+			if (rankByTfIdf) {
+				double[] idf = data.getIdf();
+				for (int i = 0; i < wordIds.length; ++i) {
+					scores[wordIds[i] - 1] += counts[i] * idf[wordIds[i] - 1];
+				}
+			} else {
+				for (int w = 0; w < numberOfWords; ++w) {
+					scores[w] = documentFrequencies[w];
+				}
+			}
+			Integer[] ranked = new Integer[kept];
+			for (int w = 0, j = 0; w < numberOfWords; ++w) {
+				if (keep[w]) {
+					ranked[j++] = w;
+				}
+			}
+			Arrays.sort(ranked, new Comparator<Integer>() {
+				public int compare(Integer a, Integer b) {
+					int ans = Double.compare(scores[b], scores[a]);
+					return ans != 0 ? ans : Integer.compare(a, b);
+				}
+			});
+			for (int j = maxWords; j < kept; ++j) {
+				keep[ranked[j]] = false;
+			}
+			kept = maxWords;
+		}
+
+		// Dense new IDs in the original order.
+		this.wordMap = new int[kept];
+		int[] newIds = new int[numberOfWords];
+		int[] newDocumentFrequencies = new int[kept];
+		for (int w = 0, j = 0; w < numberOfWords; ++w) {
+			if (keep[w]) {
+				wordMap[j] = w + 1;
+				newDocumentFrequencies[j] = documentFrequencies[w];
+				newIds[w] = ++j;
+			}
+		}
+
+		int nnz = 0;
+		for (int i = 0; i < wordIds.length; ++i) {
+			if (keep[wordIds[i] - 1]) {
+				nnz++;
+			}
+		}
+		int[] newRowPtr = new int[numberOfDocuments + 1];
+		int[] newWordIds = new int[nnz];
+		double[] newCounts = new double[nnz];
+		nnz = 0;
+		for (int d = 0; d < numberOfDocuments; ++d) {
+			for (int i = rowPtr[d]; i < rowPtr[d + 1]; ++i) {
+				int w = wordIds[i] - 1;
+				if (keep[w]) {
+					newWordIds[nnz] = newIds[w];
+					newCounts[nnz++] = counts[i];
+				}
+			}
+			newRowPtr[d + 1] = nnz;
+		}
+		this.originalWords = numberOfWords;
+		this.originalNonzeros = data.getNumberOfNonzeros();
+		this.keptNonzeros = nnz;
+		return new SparseCorpus(numberOfDocuments, kept, newRowPtr, newWordIds, newCounts, newDocumentFrequencies);
+	}
+
+	/************************* *************************/
+
+	public String toString() {
+		return "VocabularyFilter(df in [" + minDocumentFrequency + ", " + maxDocumentFraction + " D]"
+				+ (maxWords > 0 ? ", top " + maxWords + " by " + (rankByTfIdf ? "tf-idf" : "df") : "") + ")";
+	}
+
+	/************************* *************************/
+
+	/**
+	 * @description Filter a docword file and report how much the
+	 * vocabulary and the nonzero entries shrink. Arguments: the
+	 * docword file, the minimum document frequency, the maximum
+	 * document fraction, and optionally the number of words to
+	 * keep and "df" or "tfidf" to rank them by. The effect on
+	 * iterations is measured by the vocabulary parameter of
+	 * bench.IterationBenchmarks.
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 3) {
+			System.err.println("Usage: VocabularyFilter <docword file> <min df> <max df fraction> [max words] [df|tfidf]");
+			return;
+		}
+		VocabularyFilter filter = new VocabularyFilter(Integer.parseInt(args[1]), Double.parseDouble(args[2]),
+				args.length > 3 ? Integer.parseInt(args[3]) : 0, args.length > 4 && args[4].equals("tfidf"));
+		SparseCorpus data = CorpusCache.load(args[0], null);
+		SparseCorpus filtered = filter.apply(data);
+		System.out.println(filter + ": " + data + " -> " + filtered);
+		System.out.printf("Words kept %.1f%%, nonzeros kept %.1f%%%n", 100.0 * filter.getKeptWords() / filter.getOriginalWords(),
+				100.0 * filter.getKeptNonzeros() / filter.getOriginalNonzeros());
+	}
+}